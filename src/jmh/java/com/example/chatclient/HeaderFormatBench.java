@@ -0,0 +1,48 @@
+package com.example.chatclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cell header text while scrolling: formatting on every {@code updateItem} against the
+ * {@link HeaderCache} the cells share. Cycles through a window the size of a visible list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderFormatBench {
+  private final MessageLine[] window = new MessageLine[64];
+  private final HeaderCache cache = new HeaderCache(4096);
+  private int i;
+
+  @Setup
+  public void setup() {
+    long t0 = System.currentTimeMillis();
+    for (int k = 0; k < window.length; k++) {
+      window[k] = new MessageLine(k, "user" + (k % 3), "text " + k, t0 + k * 1000L);
+    }
+  }
+
+  @Benchmark
+  public String format() {
+    return HeaderCache.format(window[i++ & 63]);
+  }
+
+  @Benchmark
+  public String cached() {
+    return cache.get(window[i++ & 63]);
+  }
+}
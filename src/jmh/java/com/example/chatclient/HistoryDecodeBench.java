@@ -0,0 +1,71 @@
+package com.example.chatclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a history response: the streaming parser used by {@link ApiClient} against
+ * the tree-model decode it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryDecodeBench {
+  @Param({"1000", "10000", "100000"})
+  int messages;
+
+  private final ObjectMapper mapper = ApiClient.newMapper();
+  private final UUID conv = UUID.randomUUID();
+  private byte[] body;
+
+  @Setup
+  public void setup() throws Exception {
+    var rows = new ArrayList<Object>(messages);
+    var t0 = Instant.parse("2024-01-01T00:00:00Z");
+    for (int i = 0; i < messages; i++) {
+      rows.add(Map.of("id", i, "sender", "user" + (i % 7), "content", "message number " + i + " with some text",
+          "sentAt", t0.plusSeconds(i).toString()));
+    }
+    body = mapper.writeValueAsBytes(rows);
+  }
+
+  @Benchmark
+  public void streaming(Blackhole bh) throws Exception {
+    ApiClient.decodeMessageArray(mapper, new ByteArrayInputStream(body), conv, 500, bh::consume);
+  }
+
+  @Benchmark
+  public List<ChatMessage> tree() throws Exception {
+    JsonNode arr = mapper.readTree(new String(body, StandardCharsets.UTF_8));
+    var out = new ArrayList<ChatMessage>(arr.size());
+    for (var n : arr) {
+      out.add(new ChatMessage(n.path("id").asLong(), conv, n.path("sender").asText(),
+          n.path("content").asText(), Instant.parse(n.path("sentAt").asText())));
+    }
+    return out;
+  }
+}
@@ -0,0 +1,78 @@
+package com.example.chatclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Friend list and user search decode: cached typed readers against tree walking. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListDecodeBench {
+  @Param({"20", "500"})
+  int rows;
+
+  private final ObjectMapper mapper = ApiClient.newMapper();
+  private final ObjectReader friendsReader = mapper.readerForListOf(Friend.class);
+  private final ObjectReader usersReader = mapper.readerForListOf(UserSummary.class);
+  private byte[] friends;
+  private byte[] users;
+
+  @Setup
+  public void setup() throws Exception {
+    var f = new ArrayList<Friend>();
+    var u = new ArrayList<UserSummary>();
+    for (int i = 0; i < rows; i++) {
+      f.add(new Friend("user" + i, "User Number " + i));
+      u.add(new UserSummary("id-" + i, "user" + i, "User Number " + i));
+    }
+    friends = mapper.writeValueAsBytes(f);
+    users = mapper.writeValueAsBytes(u);
+  }
+
+  @Benchmark
+  public List<Friend> friendsTyped() throws Exception {
+    return friendsReader.readValue(friends);
+  }
+
+  @Benchmark
+  public List<Friend> friendsTree() throws Exception {
+    JsonNode arr = mapper.readTree(friends);
+    var out = new ArrayList<Friend>(arr.size());
+    for (var n : arr) out.add(new Friend(n.path("username").asText(), n.path("displayName").asText()));
+    return out;
+  }
+
+  @Benchmark
+  public List<UserSummary> searchTyped() throws Exception {
+    return usersReader.readValue(users);
+  }
+
+  @Benchmark
+  public List<UserSummary> searchTree() throws Exception {
+    JsonNode arr = mapper.readTree(users);
+    var out = new ArrayList<UserSummary>(arr.size());
+    for (var n : arr) {
+      out.add(new UserSummary(n.path("id").asText(), n.path("username").asText(), n.path("displayName").asText()));
+    }
+    return out;
+  }
+}
@@ -0,0 +1,59 @@
+package com.example.chatclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/** Per-frame payload conversion of the STOMP client, both directions, JSON against Smile. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StompConverterBench {
+  private final MessageConverter converter = StompService.messageConverter();
+
+  @Param({"json", "smile"})
+  public String format;
+
+  private ChatMessage message;
+  private Message<byte[]> frame;
+
+  @Setup
+  public void setup() {
+    message = new ChatMessage(42L, UUID.randomUUID(), "alice", "hello there, how is it going?", Instant.now());
+    var headers = StompHeaderAccessor.create(org.springframework.messaging.simp.stomp.StompCommand.MESSAGE);
+    headers.setContentType(format.equals("smile") ? StompService.SMILE : MimeTypeUtils.APPLICATION_JSON);
+    @SuppressWarnings("unchecked")
+    var m = (Message<byte[]>) converter.toMessage(message, headers.getMessageHeaders());
+    frame = MessageBuilder.createMessage(m.getPayload(), headers.getMessageHeaders());
+  }
+
+  @Benchmark
+  public Object encode() {
+    return converter.toMessage(message, frame.getHeaders());
+  }
+
+  @Benchmark
+  public Object decode() {
+    return converter.fromMessage(frame, ChatMessage.class);
+  }
+}
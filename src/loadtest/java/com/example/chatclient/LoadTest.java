@@ -0,0 +1,213 @@
+package com.example.chatclient;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator: {@code lt.users} simulated users, each with its own {@link ApiClient}
+ * and {@link StompService} exactly as the desktop client has them. Users are paired; each pair
+ * shares a DM. Every user logs in, opens the DM, loads friends and the newest history page,
+ * subscribes, then sends {@code lt.rate} messages per second for {@code lt.duration} seconds.
+ *
+ * Message content carries the send time, so the peer's receive gives send-to-receive latency;
+ * the send future gives send-to-ack latency. Without {@code lt.server} an embedded
+ * {@link StubChatServer} is started.
+ *
+ * Options (system properties): lt.users, lt.rate, lt.duration, lt.rampMs, lt.server, lt.ws.
+ */
+public class LoadTest {
+  private static final String PREFIX = "lt:";
+
+  private final int users = Integer.getInteger("lt.users", 100) & ~1;
+  private final double rate = Double.parseDouble(System.getProperty("lt.rate", "1"));
+  private final int duration = Integer.getInteger("lt.duration", 30);
+  private final long rampMs = Long.getLong("lt.rampMs", 5_000);
+
+  private final Samples login = new Samples();
+  private final Samples connect = new Samples();
+  private final Samples delivered = new Samples();
+  private final Samples acked = new Samples();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong sendErrors = new AtomicLong();
+  private final AtomicInteger connected = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final List<Client> clients = new ArrayList<>();
+
+  private record Client(String name, ChatClient chat, String conversationId) {}
+
+  public static void main(String[] args) throws Exception {
+    var server = System.getProperty("lt.server", "");
+    if (server.isBlank()) {
+      try (var stub = new StubChatServer().start(0, 0)) {
+        new LoadTest().run(stub.httpUrl(), stub.wsUrl());
+      }
+    } else {
+      new LoadTest().run(server, System.getProperty("lt.ws", server.replaceFirst("^http", "ws") + "/ws-native"));
+    }
+    System.exit(0);
+  }
+
+  void run(String baseUrl, String wsUrl) throws Exception {
+    System.out.printf(Locale.ROOT, "%d users, %.2f msg/s each, %ds against %s%n", users, rate, duration, baseUrl);
+
+    // --- sessions, ramped so the server sees arrivals rather than one burst ---
+    long t0 = System.nanoTime();
+    var ready = new CountDownLatch(users);
+    try (var starters = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < users; i++) {
+        int u = i;
+        starters.submit(() -> {
+          try {
+            Thread.sleep(rampMs * u / users);
+            start(u, baseUrl, wsUrl);
+          } catch (Exception ex) {
+            if (failed.incrementAndGet() <= 5) System.err.println("user " + u + ": " + LoadTest.rootMessage(ex));
+          } finally {
+            ready.countDown();
+          }
+        });
+      }
+      while (!ready.await(1, TimeUnit.SECONDS)) {
+        System.out.printf(Locale.ROOT, "  ramp: %d connected, %d failed%n", connected.get(), failed.get());
+      }
+    }
+    System.out.printf(Locale.ROOT, "ramp done in %d ms: %d connected, %d failed, %s%n",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0), connected.get(), failed.get(), resources());
+
+    // --- steady state ---
+    var ticker = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    long periodUs = rate > 0 ? (long) (1_000_000 / rate) : 0;
+    if (periodUs > 0) {
+      for (var c : clients) {
+        long offset = ThreadLocalRandom.current().nextLong(periodUs);
+        ticker.scheduleAtFixedRate(() -> sendOne(c), offset, periodUs, TimeUnit.MICROSECONDS);
+      }
+    }
+    long start = System.nanoTime();
+    long lastSent = 0, lastReceived = 0;
+    for (int s = 5; s <= duration; s += 5) {
+      Thread.sleep(5_000);
+      long ns = sent.get(), nr = received.get();
+      System.out.printf(Locale.ROOT, "  %3ds: sent %7.0f/s  received %7.0f/s  pending %d  %s%n",
+          s, (ns - lastSent) / 5.0, (nr - lastReceived) / 5.0, pending(), resources());
+      lastSent = ns;
+      lastReceived = nr;
+    }
+    Thread.sleep(Math.max(0, TimeUnit.SECONDS.toMillis(duration) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    ticker.shutdownNow();
+    long elapsed = System.nanoTime() - start;
+
+    // drain: whatever is still in flight gets a few seconds
+    for (int i = 0; i < 50 && received.get() < sent.get(); i++) Thread.sleep(100);
+    report(elapsed);
+    for (var c : clients) c.chat().close();
+  }
+
+  private void start(int u, String baseUrl, String wsUrl) throws Exception {
+    var name = "lt" + u;
+    var peer = "lt" + (u ^ 1);
+    var chat = ChatClient.create(new ApiClient(baseUrl), new StompService(), wsUrl);
+    long t = System.nanoTime();
+    chat.login(name, "secret", null);
+    var conv = chat.api().openDm(peer);
+    chat.api().listFriends();
+    chat.api().loadPage(conv, null, HistoryLoader.PAGE_SIZE);
+    login.add(System.nanoTime() - t);
+
+    chat.addListener(new ChatClient.Listener() {
+      @Override public void onMessage(String conversationId, ChatMessage m) { LoadTest.this.onMessage(name, m); }
+    });
+    chat.open(conv);
+    t = System.nanoTime();
+    chat.connect().get(30, TimeUnit.SECONDS);
+    connect.add(System.nanoTime() - t);
+    synchronized (clients) { clients.add(new Client(name, chat, conv)); }
+    connected.incrementAndGet();
+  }
+
+  private void sendOne(Client c) {
+    long t = System.nanoTime();
+    sent.incrementAndGet();
+    c.chat().send(c.conversationId(), PREFIX + t).whenComplete((v, ex) -> {
+      if (ex != null) sendErrors.incrementAndGet();
+      else acked.add(System.nanoTime() - t);
+    });
+  }
+
+  private void onMessage(String me, ChatMessage m) {
+    // both ends of a DM receive every message; latency is measured at the peer
+    if (me.equals(m.sender()) || m.content() == null || !m.content().startsWith(PREFIX)) return;
+    long t = Long.parseLong(m.content().substring(PREFIX.length()));
+    delivered.add(System.nanoTime() - t);
+    received.incrementAndGet();
+  }
+
+  private int pending() {
+    int n = 0;
+    synchronized (clients) { for (var c : clients) n += c.chat().stomp().pendingSends(); }
+    return n;
+  }
+
+  private void report(long elapsedNanos) {
+    double secs = elapsedNanos / 1e9;
+    System.out.println();
+    System.out.printf(Locale.ROOT, "sessions     %d connected, %d failed%n", connected.get(), failed.get());
+    System.out.printf(Locale.ROOT, "throughput   sent %.0f msg/s, received %.0f msg/s%n", sent.get() / secs, received.get() / secs);
+    System.out.printf(Locale.ROOT, "messages     sent %d, received %d, lost %d, send errors %d, still pending %d%n",
+        sent.get(), received.get(), Math.max(0, sent.get() - received.get()), sendErrors.get(), pending());
+    System.out.println("login+setup  " + login.summary());
+    System.out.println("connect      " + connect.summary());
+    System.out.println("send->ack    " + acked.summary());
+    System.out.println("send->recv   " + delivered.summary());
+    System.out.println("resources    " + resources());
+    System.out.println();
+    System.out.println("client metrics (all sessions)");
+    System.out.println(Metrics.report());
+  }
+
+  private static String resources() {
+    var mem = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    return String.format(Locale.ROOT, "threads %d, heap %d MB",
+        ManagementFactory.getThreadMXBean().getThreadCount(), mem.getUsed() >> 20);
+  }
+
+  private static String rootMessage(Throwable t) {
+    while (t.getCause() != null) t = t.getCause();
+    return t.getClass().getSimpleName() + ": " + t.getMessage();
+  }
+
+  /** Latencies in nanoseconds; percentiles are exact, computed once at the end. */
+  static final class Samples {
+    private long[] v = new long[1024];
+    private int n;
+
+    synchronized void add(long nanos) {
+      if (n == v.length) v = Arrays.copyOf(v, n * 2);
+      v[n++] = nanos;
+    }
+
+    synchronized String summary() {
+      if (n == 0) return "no samples";
+      var s = Arrays.copyOf(v, n);
+      Arrays.sort(s);
+      return String.format(Locale.ROOT, "n=%d  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s",
+          n, ms(at(s, 0.50)), ms(at(s, 0.90)), ms(at(s, 0.99)), ms(at(s, 0.999)), ms(s[n - 1]));
+    }
+
+    private static long at(long[] sorted, double q) {
+      return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static String ms(long nanos) { return String.format(Locale.ROOT, "%.2fms", nanos / 1e6); }
+  }
+}
@@ -0,0 +1,498 @@
+package com.example.chatclient;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.ServerApplicationConfig;
+import jakarta.websocket.server.ServerEndpointConfig;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
+import org.glassfish.tyrus.server.Server;
+import org.springframework.util.MimeType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the chat server, just enough for the client to run against:
+ * {@code /api/auth}, {@code /api/friends}, {@code /api/dm}, {@code /api/conversations} over
+ * plain HTTP, and a minimal STOMP 1.2 broker on {@code /ws-native} (CONNECT, SUBSCRIBE,
+ * UNSUBSCRIBE, SEND to {@code /app/send}, RECEIPT, DISCONNECT, heart-beats). Like a typical
+ * production setup it gzips larger responses when asked and accepts permessage-deflate.
+ * Clients that offer Smile on CONNECT get Smile MESSAGE frames, unless {@code -Dstub.smile=false}.
+ * {@link #stall} simulates a half-open connection.
+ *
+ * Any username/password logs in. A DM between two users is a stable conversation id; friends
+ * are the users someone opened a DM with or accepted a request from. Friend request changes are
+ * pushed to both parties on {@code /user/queue/friends}. History keeps the last
+ * {@link #HISTORY_CAP} messages.
+ *
+ * Run standalone with {@code main} to point the desktop client at it.
+ */
+public class StubChatServer implements AutoCloseable {
+  static final int HISTORY_CAP = 1_000;
+  static final int GZIP_MIN = 512;
+  static final long HEARTBEAT_MS = Long.getLong("stub.heartbeatMs", 10_000);
+  static final boolean SMILE = Boolean.parseBoolean(System.getProperty("stub.smile", "true"));
+
+  // Tyrus instantiates endpoints itself; they find the broker through this
+  private static volatile StubChatServer current;
+
+  private final ObjectMapper mapper = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+  private final ObjectMapper smile = StompService.smileMapper();
+  private final Map<String, String> tokens = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> friends = new ConcurrentHashMap<>();
+  private final Map<String, FriendRequest> requests = new ConcurrentHashMap<>();
+  private final Map<UUID, ArrayDeque<ChatMessage>> history = new ConcurrentHashMap<>();
+  private final Map<String, Map<Session, String>> subscribers = new ConcurrentHashMap<>();
+  private final AtomicLong ids = new AtomicLong();
+  private final AtomicLong frames = new AtomicLong();
+  private final ScheduledExecutorService beats = Executors.newSingleThreadScheduledExecutor(r -> {
+    var t = new Thread(r, "stub-heartbeat"); t.setDaemon(true); return t;
+  });
+  private volatile boolean stalled;
+  private HttpServer http;
+  private Server ws;
+
+  public static void main(String[] args) throws Exception {
+    int httpPort = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    int wsPort = args.length > 1 ? Integer.parseInt(args[1]) : 8081;
+    var s = new StubChatServer().start(httpPort, wsPort);
+    System.out.println("stub server: " + s.httpUrl() + "  " + s.wsUrl());
+    Thread.currentThread().join();
+  }
+
+  /** Port 0 picks a free port. */
+  public StubChatServer start(int httpPort, int wsPort) throws Exception {
+    current = this;
+    http = HttpServer.create(new InetSocketAddress("127.0.0.1", httpPort), 4096);
+    http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    http.createContext("/api/", this::handle);
+    http.start();
+    // Tyrus treats 0 as "default port" rather than "any free port"
+    if (wsPort == 0) {
+      try (var probe = new java.net.ServerSocket(0)) { wsPort = probe.getLocalPort(); }
+    }
+    ws = new Server("127.0.0.1", wsPort, "/", Map.of(), App.class);
+    ws.start();
+    return this;
+  }
+
+  public String httpUrl() { return "http://127.0.0.1:" + http.getAddress().getPort(); }
+
+  public String wsUrl() { return "ws://127.0.0.1:" + ws.getPort() + "/ws-native"; }
+
+  /** STOMP frames received so far. */
+  public long frames() { return frames.get(); }
+
+  /**
+   * While stalled the broker neither reads nor writes anything, heart-beats included, but keeps
+   * the sockets open: what a client sees behind a dead NAT mapping.
+   */
+  public void stall(boolean stalled) { this.stalled = stalled; }
+
+  @Override public void close() {
+    beats.shutdownNow();
+    if (ws != null) ws.stop();
+    if (http != null) http.stop(0);
+    if (current == this) current = null;
+  }
+
+  // --- HTTP ---
+
+  private void handle(HttpExchange ex) throws IOException {
+    try (ex) {
+      var path = ex.getRequestURI().getPath();
+      var method = ex.getRequestMethod();
+      if (method.equals("POST") && path.equals("/api/auth/login")) {
+        var body = mapper.readValue(ex.getRequestBody(), Map.class);
+        var user = String.valueOf(body.get("username"));
+        var token = "tok-" + user;
+        tokens.put(token, user);
+        reply(ex, 200, Map.of("token", token));
+      } else if (method.equals("POST") && path.equals("/api/auth/register")) {
+        reply(ex, 201, Map.of());
+      } else {
+        var user = tokens.get(bearer(ex.getRequestHeaders().getFirst("Authorization")));
+        if (user == null) { reply(ex, 401, Map.of("error", "unauthorized")); return; }
+        route(ex, method, path, user);
+      }
+    } catch (RuntimeException e) {
+      reply(ex, 400, Map.of("error", String.valueOf(e.getMessage())));
+    }
+  }
+
+  private void route(HttpExchange ex, String method, String path, String user) throws IOException {
+    if (method.equals("GET") && path.equals("/api/friends")) {
+      var rows = new ArrayList<Friend>();
+      for (var f : friends.getOrDefault(user, Set.of())) rows.add(new Friend(f, f));
+      var etag = "\"" + Integer.toHexString(rows.hashCode()) + "\"";
+      ex.getResponseHeaders().set("ETag", etag);
+      if (etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+        ex.sendResponseHeaders(304, -1);
+        return;
+      }
+      reply(ex, 200, rows);
+    } else if (method.equals("GET") && path.startsWith("/api/friends/requests/")) {
+      boolean incoming = path.endsWith("/incoming");
+      var rows = requests.values().stream()
+          .filter(r -> user.equals(incoming ? r.toUsername() : r.fromUsername()))
+          .toList();
+      reply(ex, 200, rows);
+    } else if (method.equals("POST") && path.equals("/api/friends/requests")) {
+      var to = String.valueOf(mapper.readValue(ex.getRequestBody(), Map.class).get("toUsername"));
+      var r = new FriendRequest(UUID.randomUUID().toString(), new FriendRequest.UserRef(user, user),
+          new FriendRequest.UserRef(to, to), Instant.now().toString());
+      requests.put(r.id(), r);
+      pushFriendEvent(FriendEvent.Type.REQUEST_CREATED, r);
+      reply(ex, 200, r);
+    } else if (method.equals("POST") && path.startsWith("/api/friends/requests/")
+        && (path.endsWith("/accept") || path.endsWith("/decline"))) {
+      var id = path.substring("/api/friends/requests/".length(), path.lastIndexOf('/'));
+      var r = requests.get(id);
+      if (r == null || !user.equals(r.toUsername()) || !requests.remove(id, r)) {
+        reply(ex, 404, Map.of("error", "no request " + id));
+        return;
+      }
+      boolean accept = path.endsWith("/accept");
+      if (accept) {
+        friends.computeIfAbsent(r.fromUsername(), k -> ConcurrentHashMap.newKeySet()).add(r.toUsername());
+        friends.computeIfAbsent(r.toUsername(), k -> ConcurrentHashMap.newKeySet()).add(r.fromUsername());
+      }
+      pushFriendEvent(accept ? FriendEvent.Type.REQUEST_ACCEPTED : FriendEvent.Type.REQUEST_DECLINED, r);
+      reply(ex, 200, Map.of());
+    } else if (method.equals("GET") && path.equals("/api/users/search")) {
+      reply(ex, 200, List.of());
+    } else if (method.equals("POST") && path.equals("/api/dm/open")) {
+      var peer = String.valueOf(mapper.readValue(ex.getRequestBody(), Map.class).get("username"));
+      friends.computeIfAbsent(user, k -> ConcurrentHashMap.newKeySet()).add(peer);
+      friends.computeIfAbsent(peer, k -> ConcurrentHashMap.newKeySet()).add(user);
+      reply(ex, 200, new DmOpened(dmId(user, peer).toString()));
+    } else if (method.equals("GET") && path.startsWith("/api/conversations/") && path.endsWith("/messages")) {
+      var conv = UUID.fromString(path.substring("/api/conversations/".length(), path.length() - "/messages".length()));
+      reply(ex, 200, page(conv, query(ex.getRequestURI().getRawQuery())));
+    } else {
+      reply(ex, 404, Map.of("error", "no route " + method + " " + path));
+    }
+  }
+
+  private List<ChatMessage> page(UUID conv, Map<String, String> q) {
+    var all = history.get(conv);
+    if (all == null) return List.of();
+    List<ChatMessage> out;
+    synchronized (all) { out = new ArrayList<>(all); }
+    if (q.containsKey("afterEpochMs")) {
+      long after = Long.parseLong(q.get("afterEpochMs"));
+      out.removeIf(m -> m.sentAt().toEpochMilli() <= after);
+    }
+    if (q.containsKey("beforeId")) {
+      long before = Long.parseLong(q.get("beforeId"));
+      out.removeIf(m -> m.id() >= before);
+    }
+    if (q.containsKey("limit")) {
+      int limit = Integer.parseInt(q.get("limit"));
+      if (out.size() > limit) out = out.subList(out.size() - limit, out.size());
+    }
+    return out;
+  }
+
+  private void reply(HttpExchange ex, int status, Object body) throws IOException {
+    var bytes = mapper.writeValueAsBytes(body);
+    ex.getResponseHeaders().set("Content-Type", "application/json");
+    var accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+    if (accept != null && accept.contains("gzip") && bytes.length > GZIP_MIN) {
+      var buf = new ByteArrayOutputStream(bytes.length / 4);
+      try (var gz = new GZIPOutputStream(buf)) { gz.write(bytes); }
+      bytes = buf.toByteArray();
+      ex.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    ex.sendResponseHeaders(status, bytes.length);
+    ex.getResponseBody().write(bytes);
+  }
+
+  private static Map<String, String> query(String raw) {
+    var out = new HashMap<String, String>();
+    if (raw == null) return out;
+    for (var kv : raw.split("&")) {
+      int eq = kv.indexOf('=');
+      if (eq > 0) out.put(kv.substring(0, eq), URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+    }
+    return out;
+  }
+
+  private static String bearer(String header) {
+    return header != null && header.startsWith("Bearer ") ? header.substring(7) : null;
+  }
+
+  static UUID dmId(String a, String b) {
+    var key = a.compareTo(b) < 0 ? a + "\n" + b : b + "\n" + a;
+    return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // --- STOMP ---
+
+  /** A binary frame's body holds its bytes one char each (ISO-8859-1). */
+  record Frame(String command, Map<String, String> headers, String body, boolean binary) {
+    Frame(String command, Map<String, String> headers, String body) { this(command, headers, body, false); }
+
+    String header(String name) { return headers.get(name); }
+
+    byte[] bodyBytes() { return body.getBytes(binary ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8); }
+
+    boolean smile() {
+      var type = header("content-type");
+      return type != null && StompService.isSmile(MimeType.valueOf(type));
+    }
+  }
+
+  private void onFrame(Session s, Frame f) throws IOException {
+    if (stalled) return;
+    frames.incrementAndGet();
+    switch (f.command()) {
+      case "CONNECT", "STOMP" -> {
+        var user = tokens.get(bearer(f.header("Authorization")));
+        if (user == null) {
+          send(s, new Frame("ERROR", Map.of("message", "unauthorized"), ""));
+          s.close();
+          return;
+        }
+        s.getUserProperties().put("user", user);
+        var h = new LinkedHashMap<String, String>();
+        h.put("version", "1.2");
+        h.put("heart-beat", heartbeat(s, f.header("heart-beat")));
+        if (SMILE) {
+          h.put(StompService.ACCEPT_CONTENT_TYPE, StompService.SMILE + ", application/json");
+          if (StompService.acceptsSmile(f.header(StompService.ACCEPT_CONTENT_TYPE))) s.getUserProperties().put("smile", true);
+        }
+        send(s, new Frame("CONNECTED", h, ""));
+      }
+      case "SUBSCRIBE" ->
+          subscribers.computeIfAbsent(f.header("destination"), k -> new ConcurrentHashMap<>()).put(s, f.header("id"));
+      case "UNSUBSCRIBE" -> unsubscribe(s, f.header("id"));
+      case "SEND" -> {
+        if ("/app/send".equals(f.header("destination"))) publish(s, f);
+        receipt(s, f);
+      }
+      case "DISCONNECT" -> {
+        receipt(s, f);
+        dropSession(s);
+      }
+      default -> send(s, new Frame("ERROR", Map.of("message", "unsupported " + f.command()), ""));
+    }
+  }
+
+  private void publish(Session from, Frame f) throws IOException {
+    var in = (f.smile() ? smile : mapper).readValue(f.bodyBytes(), ChatMessage.class);
+    var m = new ChatMessage(ids.incrementAndGet(), in.conversationId(),
+        (String) from.getUserProperties().get("user"), in.content(), Instant.now());
+    var all = history.computeIfAbsent(m.conversationId(), k -> new ArrayDeque<>());
+    synchronized (all) {
+      all.addLast(m);
+      if (all.size() > HISTORY_CAP) all.removeFirst();
+    }
+    var destination = "/topic/chat." + m.conversationId();
+    var subs = subscribers.get(destination);
+    if (subs == null) return;
+    var json = mapper.writeValueAsString(m);
+    var binary = SMILE ? new String(smile.writeValueAsBytes(m), StandardCharsets.ISO_8859_1) : null;
+    var clientId = f.header(StompService.CLIENT_MSG_ID);
+    for (var e : subs.entrySet()) {
+      var h = new LinkedHashMap<String, String>();
+      h.put("destination", destination);
+      h.put("subscription", e.getValue());
+      h.put("message-id", String.valueOf(m.id()));
+      // only the sender learns its client id back, as the real server does
+      if (clientId != null && e.getKey() == from) h.put(StompService.CLIENT_MSG_ID, clientId);
+      try {
+        send(e.getKey(), message(e.getKey(), h, json, binary));
+      } catch (IOException | IllegalStateException gone) {
+        dropSession(e.getKey());
+      }
+    }
+  }
+
+  /**
+   * Offers {@link #HEARTBEAT_MS} both ways and, if the client wants heart-beats from us, sends
+   * them. The stub doesn't check the client's: it only has to exercise the client side.
+   */
+  private String heartbeat(Session s, String requested) {
+    if (HEARTBEAT_MS <= 0 || requested == null) return "0,0";
+    var cxy = requested.split(",");
+    long wantsEvery = cxy.length == 2 ? Long.parseLong(cxy[1].trim()) : 0;
+    if (wantsEvery > 0) {
+      long every = Math.max(HEARTBEAT_MS, wantsEvery);
+      var beat = beats.scheduleAtFixedRate(() -> {
+        if (stalled || !s.isOpen()) return;
+        try {
+          synchronized (s) { s.getBasicRemote().sendText("\n"); }
+        } catch (IOException | IllegalStateException ignored) {
+          // closed meanwhile
+        }
+      }, every, every, TimeUnit.MILLISECONDS);
+      s.getUserProperties().put("heartbeat", beat);
+    }
+    return HEARTBEAT_MS + "," + HEARTBEAT_MS;
+  }
+
+  /** Sends {@code r}'s change to the sessions of both parties subscribed to /user/queue/friends. */
+  private void pushFriendEvent(FriendEvent.Type type, FriendRequest r) throws IOException {
+    var subs = subscribers.get("/user/queue/friends");
+    if (subs == null) return;
+    var event = new FriendEvent(type, r);
+    var json = mapper.writeValueAsString(event);
+    var binary = SMILE ? new String(smile.writeValueAsBytes(event), StandardCharsets.ISO_8859_1) : null;
+    for (var e : subs.entrySet()) {
+      var who = e.getKey().getUserProperties().get("user");
+      if (!r.fromUsername().equals(who) && !r.toUsername().equals(who)) continue;
+      var h = new LinkedHashMap<String, String>();
+      h.put("destination", "/user/queue/friends");
+      h.put("subscription", e.getValue());
+      h.put("message-id", UUID.randomUUID().toString());
+      try {
+        send(e.getKey(), message(e.getKey(), h, json, binary));
+      } catch (IOException | IllegalStateException gone) {
+        dropSession(e.getKey());
+      }
+    }
+  }
+
+  /** MESSAGE with the Smile body if {@code to} asked for Smile on CONNECT, else the JSON one. */
+  private static Frame message(Session to, Map<String, String> h, String json, String binary) {
+    if (binary != null && to.getUserProperties().containsKey("smile")) {
+      h.put("content-type", StompService.SMILE.toString());
+      return new Frame("MESSAGE", h, binary, true);
+    }
+    h.put("content-type", "application/json");
+    return new Frame("MESSAGE", h, json);
+  }
+
+  private void receipt(Session s, Frame f) throws IOException {
+    var r = f.header("receipt");
+    if (r != null) send(s, new Frame("RECEIPT", Map.of("receipt-id", r), ""));
+  }
+
+  private void unsubscribe(Session s, String id) {
+    for (var subs : subscribers.values()) subs.remove(s, id);
+  }
+
+  private void dropSession(Session s) {
+    for (var subs : subscribers.values()) subs.remove(s);
+    if (s.getUserProperties().remove("heartbeat") instanceof ScheduledFuture<?> beat) beat.cancel(false);
+  }
+
+  private static void send(Session s, Frame f) throws IOException {
+    var broker = current;
+    if (broker != null && broker.stalled) return;
+    var sb = new StringBuilder(f.command()).append('\n');
+    f.headers().forEach((k, v) -> sb.append(k).append(':').append(v).append('\n'));
+    // as Spring's broker does; a binary body may contain NULs
+    if (!f.body().isEmpty()) sb.append("content-length:").append(f.bodyBytes().length).append('\n');
+    sb.append('\n').append(f.body()).append('\0');
+    // basic remotes don't allow concurrent writers
+    synchronized (s) {
+      if (f.binary()) s.getBasicRemote().sendBinary(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1)));
+      else s.getBasicRemote().sendText(sb.toString());
+    }
+  }
+
+  /**
+   * Frames in one WebSocket message; bare EOLs between frames are heart-beats. A binary message
+   * comes in as ISO-8859-1 text, so its content-length (bytes) can be trusted over the NUL.
+   */
+  static List<Frame> parse(String text, boolean binary) {
+    var out = new ArrayList<Frame>();
+    int i = 0, n = text.length();
+    while (i < n) {
+      while (i < n && (text.charAt(i) == '\n' || text.charAt(i) == '\r')) i++;
+      if (i >= n) break;
+      int headerEnd = text.indexOf("\n\n", i);
+      if (headerEnd < 0) break;
+      var lines = text.substring(i, headerEnd).split("\r?\n");
+      var headers = new HashMap<String, String>();
+      for (int k = 1; k < lines.length; k++) {
+        int c = lines[k].indexOf(':');
+        // repeated headers: the first one wins
+        if (c > 0) headers.putIfAbsent(lines[k].substring(0, c), unescape(lines[k].substring(c + 1)));
+      }
+      var length = binary ? headers.get("content-length") : null;
+      int bodyEnd = length != null ? headerEnd + 2 + Integer.parseInt(length.strip()) : text.indexOf('\0', headerEnd + 2);
+      if (bodyEnd < 0 || bodyEnd > n) bodyEnd = n;
+      out.add(new Frame(lines[0].strip(), headers, text.substring(headerEnd + 2, bodyEnd), binary));
+      i = bodyEnd + 1;
+    }
+    return out;
+  }
+
+  private static String unescape(String v) {
+    if (v.indexOf('\\') < 0) return v;
+    return v.replace("\\c", ":").replace("\\n", "\n").replace("\\r", "\r").replace("\\\\", "\\");
+  }
+
+  /** Registers the broker endpoint with permessage-deflate available (clients opt in). */
+  public static class App implements ServerApplicationConfig {
+    @Override public Set<ServerEndpointConfig> getEndpointConfigs(Set<Class<? extends Endpoint>> scanned) {
+      return Set.of(ServerEndpointConfig.Builder.create(StompEndpoint.class, "/ws-native")
+          .subprotocols(List.of("v12.stomp", "v11.stomp", "v10.stomp"))
+          .extensions(List.of(new PerMessageDeflateExtension()))
+          .build());
+    }
+
+    @Override public Set<Class<?>> getAnnotatedEndpointClasses(Set<Class<?>> scanned) { return Set.of(); }
+  }
+
+  public static class StompEndpoint extends Endpoint {
+    @Override public void onOpen(Session s, EndpointConfig config) {
+      s.setMaxTextMessageBufferSize(1 << 20);
+      s.setMaxBinaryMessageBufferSize(1 << 20);
+      s.addMessageHandler(String.class, text -> onMessage(s, text, false));
+      s.addMessageHandler(ByteBuffer.class, bytes -> onMessage(s, StandardCharsets.ISO_8859_1.decode(bytes).toString(), true));
+    }
+
+    private static void onMessage(Session s, String text, boolean binary) {
+      var broker = current;
+      try {
+        for (var f : parse(text, binary)) broker.onFrame(s, f);
+      } catch (IOException e) {
+        broker.dropSession(s);
+      }
+    }
+
+    @Override public void onClose(Session s, CloseReason reason) {
+      var broker = current;
+      if (broker != null) broker.dropSession(s);
+    }
+
+    @Override public void onError(Session s, Throwable t) {
+      onClose(s, null);
+    }
+  }
+}
@@ -1,25 +1,81 @@
 package com.example.chatclient;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
-
+/**
+ * REST client. Every endpoint has a non-blocking {@code ...Async} variant built on
+ * {@link HttpClient#sendAsync}; the blocking methods simply wait on it.
+ * Cancelling a returned future aborts the underlying exchange.
+ */
 public class ApiClient {
+  private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(Long.getLong("httpConnectTimeoutMs", 10_000));
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Long.getLong("httpRequestTimeoutMs", 30_000));
+  private static final int HTTP_THREADS = Integer.getInteger("httpThreads", 4);
+  private static final Duration FRIENDS_TTL  = Duration.ofSeconds(Long.getLong("cacheFriendsTtlSec", 30));
+  private static final Duration REQUESTS_TTL = Duration.ofSeconds(Long.getLong("cacheRequestsTtlSec", 15));
+  private static final Duration SEARCH_TTL   = Duration.ofSeconds(Long.getLong("cacheSearchTtlSec", 60));
+  private static final boolean GZIP = Boolean.parseBoolean(System.getProperty("httpGzip", "true"));
+
   private final String baseUrl;
-  private final HttpClient http = HttpClient.newHttpClient();
-  private final ObjectMapper mapper = new ObjectMapper();
-  private String lastToken;
+  // One client and pool for every instance in the JVM: many sessions share threads and (HTTP/2)
+  // connections instead of each bringing its own.
+  private static final ExecutorService HTTP_EXECUTOR = Executors.newFixedThreadPool(HTTP_THREADS, r -> {
+    var t = new Thread(r, "api-http"); t.setDaemon(true); return t;
+  });
+  // HTTP/2 lets concurrent calls share one connection; falls back to 1.1 if the server can't
+  private static final HttpClient HTTP = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(CONNECT_TIMEOUT)
+      .executor(HTTP_EXECUTOR)
+      .build();
+  // Bodies read as an InputStream block until the HTTP pool delivers the bytes, so they must not
+  // be decoded on that pool: four concurrent decodes would starve the very threads feeding them.
+  private static final ExecutorService DECODE = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("api-decode").factory());
+  // Per JVM like the client: mapper and readers are thread-safe, and Blackbird generates its
+  // accessor classes per mapper, which hundreds of sessions would otherwise each repeat.
+  private static final ObjectMapper MAPPER = newMapper();
+  // built once: per-call readerFor() lookups and JsonNode trees are what we're avoiding
+  private static final ObjectReader USERS_READER = MAPPER.readerForListOf(UserSummary.class);
+  private static final ObjectReader FRIENDS_READER = MAPPER.readerForListOf(Friend.class);
+  private static final ObjectReader REQUESTS_READER = MAPPER.readerForListOf(FriendRequest.class);
+  private static final ObjectReader DM_READER = MAPPER.readerFor(DmOpened.class);
+  private static final ObjectReader ID_READER = MAPPER.readerFor(FriendRequest.class);
+  private final HttpCache cache = new HttpCache(Integer.getInteger("httpCacheEntries", 256));
+  private volatile String lastToken;
   private static final DateTimeFormatter TS =
 		    DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
 		                     .withZone(ZoneId.systemDefault());
@@ -27,186 +83,440 @@ public class ApiClient {
 
   public ApiClient(String baseUrl) { this.baseUrl = baseUrl; }
 
+  static ObjectMapper newMapper() {
+    var m = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    if (Boolean.parseBoolean(System.getProperty("jsonBlackbird", "true"))) m.registerModule(new BlackbirdModule());
+    return m;
+  }
+
+  /**
+   * Opens the (TLS, HTTP/2) connection to the server and builds the JSON deserializers, so the
+   * first real call doesn't pay for either. Meant to run while the user is still typing; never fails.
+   */
+  public CompletableFuture<Void> prewarmAsync() {
+    try {
+      for (var r : List.of(USERS_READER, FRIENDS_READER, REQUESTS_READER)) r.readValue("[]");
+      DM_READER.readValue("{}");
+    } catch (java.io.IOException ignored) {
+      // only warming
+    }
+    var req = request("/").method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+    return HTTP.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+        .handle((res, ex) -> null);
+  }
+
+  // --- Auth ---
+
   public String login(String username, String password) throws Exception {
-	  var body = mapper.writeValueAsString(Map.of("username", username, "password", password));
-	  var req = HttpRequest.newBuilder(URI.create(baseUrl + "/api/auth/login"))
-	      .header("Content-Type", "application/json")
-	      .POST(HttpRequest.BodyPublishers.ofString(body))
-	      .build();
-
-	  var res = http.send(req, HttpResponse.BodyHandlers.ofString());
-
-	  if (res.statusCode() != 200) {
-	    throw new RuntimeException("HTTP " + res.statusCode() + " body=" + res.body());
-	  }
-
-	  JsonNode node = mapper.readTree(res.body());
-	  JsonNode tokenNode = node.path("token");
-	  if (tokenNode.isMissingNode() || tokenNode.isNull()) {
-	    throw new RuntimeException("No 'token' in response: " + res.body());
-	  }
-
-	  this.lastToken = tokenNode.asText();
-	  return this.lastToken;
-	}
-  
-//--- Friends & DM ---
-
-public java.util.List<java.util.Map<String,Object>> searchUsers(String q) throws Exception {
- var url = baseUrl + "/api/users/search?q=" + java.net.URLEncoder.encode(q, java.nio.charset.StandardCharsets.UTF_8);
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(url))
-     .header("Authorization", "Bearer " + lastToken)
-     .GET().build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("search failed: " + res.body());
- var arr = mapper.readTree(res.body());
- var out = new java.util.ArrayList<java.util.Map<String,Object>>();
- for (var n : arr) {
-   out.add(java.util.Map.of(
-       "id", n.get("id").asText(),
-       "username", n.get("username").asText(),
-       "displayName", n.get("displayName").asText()
-   ));
- }
- return out;
-}
+    return await(loginAsync(username, password));
+  }
 
-public String sendFriendRequest(String toUsername) throws Exception {
- var body = mapper.writeValueAsString(java.util.Map.of("toUsername", toUsername));
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(baseUrl + "/api/friends/requests"))
-     .header("Authorization", "Bearer " + lastToken)
-     .header("Content-Type", "application/json")
-     .POST(java.net.http.HttpRequest.BodyPublishers.ofString(body)).build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("request failed: " + res.body());
- return mapper.readTree(res.body()).get("id").asText();
-}
+  public CompletableFuture<String> loginAsync(String username, String password) {
+    var req = json(request("/api/auth/login"), Map.of("username", username, "password", password));
+    var sent = send(req, HttpResponse.BodyHandlers.ofString());
+    return linked(sent, sent.thenApply(res -> {
+      if (res.statusCode() != 200) {
+        throw new RuntimeException("HTTP " + res.statusCode() + " body=" + res.body());
+      }
+      JsonNode tokenNode;
+      try { tokenNode = MAPPER.readTree(res.body()).path("token"); }
+      catch (Exception e) { throw new CompletionException(e); }
+      if (tokenNode.isMissingNode() || tokenNode.isNull()) {
+        throw new RuntimeException("No 'token' in response: " + res.body());
+      }
+      this.lastToken = tokenNode.asText();
+      cache.clear(); // cached lists belong to the previous login
+      return this.lastToken;
+    }));
+  }
 
-public java.util.List<java.util.Map<String,Object>> incomingRequests() throws Exception {
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(baseUrl + "/api/friends/requests/incoming"))
-     .header("Authorization", "Bearer " + lastToken).GET().build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("incoming failed: " + res.body());
- var arr = mapper.readTree(res.body());
- var out = new java.util.ArrayList<java.util.Map<String,Object>>();
- for (var n: arr) out.add(java.util.Map.of(
-     "id", n.get("id").asText(),
-     "from", n.get("from").get("username").asText(),
-     "at", n.get("createdAt").asText()
- ));
- return out;
-}
+  public void register(String username, String displayName, String password) throws Exception {
+    await(registerAsync(username, displayName, password));
+  }
 
-public void acceptRequest(String requestId) throws Exception {
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(baseUrl + "/api/friends/requests/"+requestId+"/accept"))
-     .header("Authorization", "Bearer " + lastToken)
-     .POST(java.net.http.HttpRequest.BodyPublishers.noBody()).build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("accept failed: " + res.body());
-}
+  public CompletableFuture<Void> registerAsync(String username, String displayName, String password) {
+    var req = json(request("/api/auth/register"), Map.of(
+        "username", username, "displayName", displayName, "password", password));
+    var sent = send(req, HttpResponse.BodyHandlers.ofString());
+    return linked(sent, sent.thenApply(res -> {
+      if (res.statusCode() != 200 && res.statusCode() != 201) {
+        throw new RuntimeException("Register failed: " + res.statusCode() + " " + res.body());
+      }
+      return null;
+    }));
+  }
 
-public java.util.List<java.util.Map<String,Object>> listFriends() throws Exception {
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(baseUrl + "/api/friends"))
-     .header("Authorization", "Bearer " + lastToken).GET().build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("friends failed: " + res.body());
- var arr = mapper.readTree(res.body());
- var out = new java.util.ArrayList<java.util.Map<String,Object>>();
- for (var n : arr) out.add(java.util.Map.of(
-     "username", n.get("username").asText(),
-     "displayName", n.get("displayName").asText()
- ));
- return out;
-}
+  // --- Friends & DM ---
 
-public String openDm(String peerUsername) throws Exception {
- var body = mapper.writeValueAsString(java.util.Map.of("username", peerUsername));
- var req = java.net.http.HttpRequest.newBuilder(java.net.URI.create(baseUrl + "/api/dm/open"))
-     .header("Authorization", "Bearer " + lastToken)
-     .header("Content-Type", "application/json")
-     .POST(java.net.http.HttpRequest.BodyPublishers.ofString(body)).build();
- var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
- if (res.statusCode()!=200) throw new RuntimeException("open dm failed: " + res.body());
- return mapper.readTree(res.body()).get("conversationId").asText();
-}
+  public List<UserSummary> searchUsers(String q) throws Exception {
+    return await(searchUsersAsync(q));
+  }
+
+  public CompletableFuture<List<UserSummary>> searchUsersAsync(String q) {
+    return cachedJson("/api/users/search?q=" + URLEncoder.encode(q, StandardCharsets.UTF_8), SEARCH_TTL, "search failed", USERS_READER);
+  }
 
+  public String sendFriendRequest(String toUsername) throws Exception {
+    return await(sendFriendRequestAsync(toUsername));
+  }
 
+  public CompletableFuture<String> sendFriendRequestAsync(String toUsername) {
+    var req = json(authed("/api/friends/requests"), Map.of("toUsername", toUsername));
+    var call = this.<FriendRequest>callJson(req, "request failed", ID_READER);
+    return linked(call, call
+        .whenComplete((r, ex) -> cache.invalidate("/api/friends/requests/outgoing"))
+        .thenApply(FriendRequest::id));
+  }
 
-  public void register(String username, String displayName, String password) throws Exception {
-    var body = mapper.writeValueAsString(Map.of(
-        "username", username, "displayName", displayName, "password", password));
-    var req = HttpRequest.newBuilder(URI.create(baseUrl + "/api/auth/register"))
-        .header("Content-Type", "application/json")
-        .POST(HttpRequest.BodyPublishers.ofString(body))
-        .build();
-    var res = http.send(req, HttpResponse.BodyHandlers.ofString());
-    if (res.statusCode() != 200 && res.statusCode() != 201) {
-      throw new RuntimeException("Register failed: " + res.statusCode() + " " + res.body());
-    }
+  public List<FriendRequest> incomingRequests() throws Exception {
+    return await(incomingRequestsAsync());
   }
 
+  public CompletableFuture<List<FriendRequest>> incomingRequestsAsync() {
+    return cachedJson("/api/friends/requests/incoming", REQUESTS_TTL, "incoming failed", REQUESTS_READER);
+  }
+
+  public List<FriendRequest> outgoingRequests() throws Exception {
+    return await(outgoingRequestsAsync());
+  }
+
+  public CompletableFuture<List<FriendRequest>> outgoingRequestsAsync() {
+    return cachedJson("/api/friends/requests/outgoing", REQUESTS_TTL, "outgoing failed", REQUESTS_READER);
+  }
+
+  public void acceptRequest(String requestId) throws Exception {
+    await(acceptRequestAsync(requestId));
+  }
+
+  public CompletableFuture<Void> acceptRequestAsync(String requestId) {
+    var req = authed("/api/friends/requests/" + requestId + "/accept").POST(HttpRequest.BodyPublishers.noBody()).build();
+    var call = this.<Void>call(req, "accept failed", res -> null);
+    return linked(call, call.whenComplete((r, ex) -> cache.invalidate("/api/friends")));
+  }
+
+  public void declineRequest(String requestId) throws Exception {
+    await(declineRequestAsync(requestId));
+  }
+
+  public CompletableFuture<Void> declineRequestAsync(String requestId) {
+    var req = authed("/api/friends/requests/" + requestId + "/decline").POST(HttpRequest.BodyPublishers.noBody()).build();
+    var call = this.<Void>call(req, "decline failed", res -> null);
+    return linked(call, call.whenComplete((r, ex) -> cache.invalidate("/api/friends/requests/incoming")));
+  }
+
+  public List<Friend> listFriends() throws Exception {
+    return await(listFriendsAsync());
+  }
+
+  public CompletableFuture<List<Friend>> listFriendsAsync() {
+    return cachedJson("/api/friends", FRIENDS_TTL, "friends failed", FRIENDS_READER);
+  }
+
+  public String openDm(String peerUsername) throws Exception {
+    return await(openDmAsync(peerUsername));
+  }
+
+  public CompletableFuture<String> openDmAsync(String peerUsername) {
+    var req = json(authed("/api/dm/open"), Map.of("username", peerUsername));
+    var call = this.<DmOpened>callJson(req, "open dm failed", DM_READER);
+    return linked(call, call.thenApply(DmOpened::conversationId));
+  }
+
+  // --- History ---
+
   public List<String> loadHistory(String conversationId) throws Exception {
-    var url = baseUrl + "/api/conversations/" + conversationId + "/messages";
-    var req = HttpRequest.newBuilder(URI.create(url))
-        .header("Authorization", "Bearer " + lastToken)
-        .GET().build();
-    var res = http.send(req, HttpResponse.BodyHandlers.ofString());
-    if (res.statusCode() != 200) throw new RuntimeException("History failed: " + res.statusCode() + " " + res.body());
-    var arr = mapper.readTree(res.body());
     var lines = new ArrayList<String>();
-    for (var n : arr) {
-    	  var sender = n.get("sender").asText();
-    	  var content = n.get("content").asText();
-    	  var tsIso = n.get("sentAt").asText();   // e.g. 2025-08-23T06:30:58.961657Z
-    	  var ts = Instant.parse(tsIso);
-    	  lines.add("[" + TS.format(ts) + "] " + sender + ": " + content);
-    	}
+    for (var m : loadMessages(conversationId)) lines.add(format(m));
     return lines;
   }
-  
+
   public List<String> loadHistoryAfter(String conversationId, long afterEpochMs) throws Exception {
-	  var url = baseUrl + "/api/conversations/" + conversationId + "/messages?afterEpochMs=" + afterEpochMs;
-	  var req = HttpRequest.newBuilder(URI.create(url))
-	      .header("Authorization", "Bearer " + lastToken)
-	      .GET().build();
-	  var res = http.send(req, HttpResponse.BodyHandlers.ofString());
-	  if (res.statusCode() != 200) throw new RuntimeException("History(since) failed: " + res.statusCode());
-	  var arr = mapper.readTree(res.body());
-	  var lines = new ArrayList<String>();
-	  for (var n : arr) {
-	    var sender = n.get("sender").asText();
-	    var content = n.get("content").asText();
-	    var tsIso = n.get("sentAt").asText();
-	    lines.add("[" + TS.format(Instant.parse(tsIso)) + "] " + sender + ": " + content);
-	  }
-	  return lines;
-	}
-  public void declineRequest(String requestId) throws Exception {
-	  var req = java.net.http.HttpRequest.newBuilder(
-	      java.net.URI.create(baseUrl + "/api/friends/requests/" + requestId + "/decline"))
-	      .header("Authorization", "Bearer " + lastToken)
-	      .POST(java.net.http.HttpRequest.BodyPublishers.noBody())
-	      .build();
-	  var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
-	  if (res.statusCode()!=200) throw new RuntimeException("decline failed: " + res.body());
-	}
-  
-  public java.util.List<java.util.Map<String,Object>> outgoingRequests() throws Exception {
-	  var req = java.net.http.HttpRequest.newBuilder(
-	      java.net.URI.create(baseUrl + "/api/friends/requests/outgoing"))
-	      .header("Authorization", "Bearer " + lastToken).GET().build();
-	  var res = http.send(req, java.net.http.HttpResponse.BodyHandlers.ofString());
-	  if (res.statusCode()!=200) throw new RuntimeException("outgoing failed: " + res.body());
-	  var arr = mapper.readTree(res.body());
-	  var out = new java.util.ArrayList<java.util.Map<String,Object>>();
-	  for (var n: arr) out.add(java.util.Map.of(
-	      "id", n.get("id").asText(),
-	      "to", n.get("to").get("username").asText(),
-	      "at", n.get("createdAt").asText()
-	  ));
-	  return out;
-	}
+    var lines = new ArrayList<String>();
+    for (var m : loadMessagesAfter(conversationId, afterEpochMs)) lines.add(format(m));
+    return lines;
+  }
 
+  public List<ChatMessage> loadMessages(String conversationId) throws Exception {
+    return await(loadMessagesAsync(conversationId));
+  }
+
+  public CompletableFuture<List<ChatMessage>> loadMessagesAsync(String conversationId) {
+    return collectMessages(conversationId, "");
+  }
+
+  public List<ChatMessage> loadMessagesAfter(String conversationId, long afterEpochMs) throws Exception {
+    return await(loadMessagesAfterAsync(conversationId, afterEpochMs));
+  }
+
+  public CompletableFuture<List<ChatMessage>> loadMessagesAfterAsync(String conversationId, long afterEpochMs) {
+    return collectMessages(conversationId, "?afterEpochMs=" + afterEpochMs);
+  }
+
+  /** One page of history, oldest first. {@code olderCursor} is null once the start of the conversation is reached. */
+  public record HistoryPage(List<ChatMessage> messages, Long olderCursor) {}
+
+  /** Newest {@code limit} messages when {@code beforeId} is null, otherwise the {@code limit} messages before it. */
+  public HistoryPage loadPage(String conversationId, Long beforeId, int limit) throws Exception {
+    return await(loadPageAsync(conversationId, beforeId, limit));
+  }
+
+  public CompletableFuture<HistoryPage> loadPageAsync(String conversationId, Long beforeId, int limit) {
+    var query = "?limit=" + limit + (beforeId != null ? "&beforeId=" + beforeId : "");
+    var call = collectMessages(conversationId, query);
+    return linked(call, call.thenApply(out -> {
+      // a server ignoring limit/beforeId sends everything: that is the whole history, not a page
+      boolean unpaged = out.size() > limit
+          || beforeId != null && !out.isEmpty() && out.get(0).id() != null && out.get(0).id() >= beforeId;
+      if (unpaged) {
+        if (beforeId != null) out = out.stream().filter(m -> m.id() == null || m.id() < beforeId).toList();
+        return new HistoryPage(out, null);
+      }
+      Long cursor = out.size() < limit || out.get(0).id() == null ? null : out.get(0).id();
+      return new HistoryPage(out, cursor);
+    }));
+  }
+
+  /**
+   * Decodes a message array straight off the response stream, handing over
+   * {@code chunkSize} messages at a time so the full body is never buffered.
+   */
+  public void streamMessages(String conversationId, String query, int chunkSize,
+                             Consumer<List<ChatMessage>> onChunk) throws Exception {
+    var res = await(send(history(conversationId, query), HttpResponse.BodyHandlers.ofInputStream()));
+    decodeMessages(res, conversationId, chunkSize, onChunk);
+  }
+
+  private CompletableFuture<List<ChatMessage>> collectMessages(String conversationId, String query) {
+    var sent = send(history(conversationId, query), HttpResponse.BodyHandlers.ofInputStream());
+    // decoding blocks on the stream: neither the caller's thread nor the HTTP pool (see DECODE)
+    return linked(sent, sent.thenApplyAsync(res -> {
+      try {
+        var out = new ArrayList<ChatMessage>();
+        decodeMessages(res, conversationId, 256, out::addAll);
+        return out;
+      } catch (Exception ex) {
+        throw new CompletionException(ex);
+      }
+    }, DECODE));
+  }
+
+  private HttpRequest history(String conversationId, String query) {
+    return authed("/api/conversations/" + conversationId + "/messages" + query).GET().build();
+  }
+
+  private void decodeMessages(HttpResponse<InputStream> res, String conversationId, int chunkSize,
+                              Consumer<List<ChatMessage>> onChunk) throws Exception {
+    try (var in = res.body()) {
+      if (res.statusCode() != 200) {
+        throw new RuntimeException("History failed: " + res.statusCode() + " " + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+      }
+      decodeMessageArray(MAPPER, in, UUID.fromString(conversationId), chunkSize, onChunk);
+    }
+  }
+
+  /** Streaming decode of a message array; package-visible for the benchmarks. */
+  static void decodeMessageArray(ObjectMapper mapper, InputStream in, UUID conv, int chunkSize,
+                                 Consumer<List<ChatMessage>> onChunk) throws java.io.IOException {
+    try (var p = mapper.getFactory().createParser(in)) {
+      if (p.nextToken() != JsonToken.START_ARRAY) throw new RuntimeException("History failed: expected array");
+      var chunk = new ArrayList<ChatMessage>(chunkSize);
+      while (p.nextToken() == JsonToken.START_OBJECT) {
+        chunk.add(readMessage(p, conv));
+        if (chunk.size() == chunkSize) { onChunk.accept(chunk); chunk = new ArrayList<>(chunkSize); }
+      }
+      if (!chunk.isEmpty()) onChunk.accept(chunk);
+    }
+  }
+
+  private static ChatMessage readMessage(JsonParser p, UUID conv) throws java.io.IOException {
+    Long id = null; String sender = null, content = null; Instant sentAt = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      var field = p.currentName();
+      var t = p.nextToken();
+      switch (field) {
+        case "id" -> id = t == JsonToken.VALUE_NULL ? null : p.getLongValue();
+        case "sender" -> sender = p.getValueAsString();
+        case "content" -> content = p.getValueAsString();
+        case "sentAt" -> sentAt = Instant.parse(p.getText());
+        default -> p.skipChildren();
+      }
+    }
+    return new ChatMessage(id, conv, sender, content, sentAt);
+  }
+
+  private static String format(ChatMessage m) {
+    return "[" + TS.format(m.sentAt()) + "] " + m.sender() + ": " + m.content();
+  }
+
+  // --- Plumbing ---
+
+  private HttpRequest.Builder request(String path) {
+    var b = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+    return GZIP ? b.header("Accept-Encoding", "gzip") : b;
+  }
+
+  private HttpRequest.Builder authed(String path) {
+    return request(path).header("Authorization", "Bearer " + lastToken);
+  }
+
+  private HttpRequest json(HttpRequest.Builder b, Object body) {
+    try {
+      return b.header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body)))
+          .build();
+    } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Decoder<T> { T decode(HttpResponse<String> res) throws Exception; }
+
+  /** String-bodied call that must answer 200; anything else fails with "{@code what}: body". */
+  private <T> CompletableFuture<T> call(HttpRequest req, String what, Decoder<T> decoder) {
+    var sent = send(req, HttpResponse.BodyHandlers.ofString());
+    return linked(sent, sent.thenApply(res -> {
+      if (res.statusCode() != 200) {
+        throw new RuntimeException(what + ": " + res.body());
+      }
+      try {
+        return decoder.decode(res);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }));
+  }
+
+  /**
+   * GET through {@link HttpCache}: fresh entries cost nothing, stale ones are revalidated
+   * and a 304 reuses the decoded value.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> CompletableFuture<T> cachedJson(String path, Duration ttl, String what, ObjectReader reader) {
+    var cached = cache.get(path);
+    if (cached != null && cached.fresh()) return CompletableFuture.completedFuture((T) cached.value());
+    var b = authed(path).GET();
+    if (cached != null && cached.etag() != null) b.header("If-None-Match", cached.etag());
+    if (cached != null && cached.lastModified() != null) b.header("If-Modified-Since", cached.lastModified());
+    long generation = cache.generation();
+    var sent = send(b.build(), HttpResponse.BodyHandlers.ofInputStream());
+    return linked(sent, sent.thenApplyAsync(res -> {
+      try (var in = res.body()) {
+        if (res.statusCode() == 304 && cached != null) {
+          cache.put(path, cached.renewed(ttl), generation);
+          return (T) cached.value();
+        }
+        if (res.statusCode() != 200) {
+          throw new RuntimeException(what + ": " + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        T value = reader.readValue(in);
+        if (value instanceof List<?> l) value = (T) List.copyOf(l); // shared between callers
+        var h = res.headers();
+        cache.put(path, new HttpCache.Entry(value, h.firstValue("ETag").orElse(null),
+            h.firstValue("Last-Modified").orElse(null), System.nanoTime() + ttl.toNanos()), generation);
+        return value;
+      } catch (java.io.IOException e) {
+        throw new CompletionException(e);
+      }
+    }, DECODE));
+  }
 
+  /** Drops cached friends/requests/search results, e.g. after a change pushed by the server. */
+  public void invalidateCache(String... pathPrefixes) {
+    if (pathPrefixes.length == 0) cache.clear(); else cache.invalidate(pathPrefixes);
+  }
+
+  /** 200-only call whose body is bound by {@code reader} straight from the byte stream. */
+  private <T> CompletableFuture<T> callJson(HttpRequest req, String what, ObjectReader reader) {
+    var sent = send(req, HttpResponse.BodyHandlers.ofInputStream());
+    return linked(sent, sent.thenApplyAsync(res -> {
+      try (var in = res.body()) {
+        if (res.statusCode() != 200) {
+          throw new RuntimeException(what + ": " + new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        return reader.<T>readValue(in);
+      } catch (java.io.IOException e) {
+        throw new CompletionException(e);
+      }
+    }, DECODE));
+  }
+
+  /**
+   * sendAsync whose returned stage, when cancelled, also cancels the exchange (see {@link #linked}).
+   * Records latency to response, status and bytes per endpoint in {@link Metrics}: "bytesIn" is
+   * what crossed the wire, "bytesIn decoded" what the body handler saw after gzip.
+   */
+  private <B> CompletableFuture<HttpResponse<B>> send(HttpRequest req, HttpResponse.BodyHandler<B> handler) {
+    var name = "api " + req.method() + " " + template(req.uri().getPath());
+    var bytesIn = Metrics.meter(name + " bytesIn");
+    var decoded = Metrics.meter(name + " bytesIn decoded");
+    req.bodyPublisher().ifPresent(p -> { if (p.contentLength() > 0) Metrics.meter(name + " bytesOut").mark(p.contentLength()); });
+    long t0 = System.nanoTime();
+    var sent = HTTP.sendAsync(req, info -> {
+      var body = counting(handler.apply(info), decoded);
+      // HEAD, 204 and 304 carry the header of the body they would have had, but no bytes to inflate
+      boolean bodyless = req.method().equals("HEAD") || info.statusCode() == 204 || info.statusCode() == 304;
+      boolean gzip = !bodyless && info.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent();
+      return counting(gzip ? new GzipBodySubscriber<>(body) : body, bytesIn);
+    });
+    var out = linked(sent, sent.thenApply(Function.identity()));
+    out.whenComplete((r, t) -> {
+      Metrics.histogram(name).since(t0);
+      Metrics.meter(r != null ? name + " status " + r.statusCode() : name + " failed").mark();
+    });
+    return out;
+  }
+
+  /**
+   * Returns {@code stage}, derived from {@code upstream}, such that cancelling it cancels
+   * {@code upstream} too. Cancellation does not travel up a chain of stages by itself; every
+   * endpoint links each stage it adds, so cancelling what it returns reaches the exchange.
+   */
+  private static <T> CompletableFuture<T> linked(CompletableFuture<?> upstream, CompletableFuture<T> stage) {
+    stage.whenComplete((r, t) -> { if (stage.isCancelled()) upstream.cancel(true); });
+    return stage;
+  }
 
+  /** {@code /api/conversations/<uuid>/messages} -> {@code /api/conversations/{id}/messages}, so ids don't explode the metric names. */
+  static String template(String path) {
+    var parts = path.split("/");
+    for (int i = 0; i < parts.length; i++) {
+      var p = parts[i];
+      if (p.length() == 36 && p.charAt(8) == '-' || !p.isEmpty() && p.chars().allMatch(Character::isDigit)) parts[i] = "{id}";
+    }
+    return String.join("/", parts);
+  }
+
+  /** Counts body bytes as they arrive, whatever the body type. */
+  private static <B> HttpResponse.BodySubscriber<B> counting(HttpResponse.BodySubscriber<B> body, Metrics.Meter bytes) {
+    return new HttpResponse.BodySubscriber<>() {
+      @Override public CompletionStage<B> getBody() { return body.getBody(); }
+      @Override public void onSubscribe(Flow.Subscription s) { body.onSubscribe(s); }
+      @Override public void onNext(List<ByteBuffer> item) {
+        long n = 0;
+        for (var b : item) n += b.remaining();
+        bytes.mark(n);
+        body.onNext(item);
+      }
+      @Override public void onError(Throwable t) { body.onError(t); }
+      @Override public void onComplete() { body.onComplete(); }
+    };
+  }
+
+  /** Blocks for {@code f}; interruption cancels the request, failures surface unwrapped. */
+  private static <T> T await(CompletableFuture<T> f) throws Exception {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      f.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception cause) throw cause;
+      throw e;
+    } catch (CancellationException e) {
+      throw new InterruptedException("cancelled");
+    }
+  }
 }
@@ -0,0 +1,117 @@
+package com.example.chatclient;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * What the client needs right after login, fetched all at once: friends, incoming and outgoing
+ * requests, the STOMP session and the newest history page of the last open conversation.
+ * Login to a usable chat then takes as long as the slowest call, not the sum of them.
+ *
+ * One policy for every call: a shared deadline ({@code -DbootstrapTimeoutMs}), after which
+ * whatever still runs is interrupted (that aborts a blocking HttpClient.send). A failing call
+ * does not cancel the others; it is listed in {@link Ready#failures()}. Interrupting
+ * {@link #run} cancels everything, and no thread forked here outlives it.
+ */
+public class Bootstrap {
+  public static final long TIMEOUT_MS = Long.getLong("bootstrapTimeoutMs", 10_000);
+  private static final Metrics.Histogram TIME = Metrics.histogram("bootstrap");
+
+  /** Parts that failed or timed out are null (lists) and named in {@code failures}. */
+  public record Ready(List<Friend> friends, List<FriendRequest> incoming, List<FriendRequest> outgoing,
+                      List<ChatMessage> history, Map<String, Throwable> failures, long millis) {
+    public boolean connected() { return !failures.containsKey("connect"); }
+  }
+
+  private final ApiClient api;
+  private final StompService stomp;
+
+  public Bootstrap(ApiClient api, StompService stomp) {
+    this.api = api; this.stomp = stomp;
+  }
+
+  /** Blocks until every call finished or the deadline passed. {@code history} may be null. */
+  public Ready run(String wsUrl, String token, HistoryLoader history) throws InterruptedException {
+    long t0 = System.nanoTime();
+    try (var scope = new Scope(TIMEOUT_MS)) {
+      var friends = scope.fork("friends", api::listFriends);
+      var incoming = scope.fork("incoming requests", api::incomingRequests);
+      var outgoing = scope.fork("outgoing requests", api::outgoingRequests);
+      scope.fork("connect", () -> stomp.connect(wsUrl, token, null).get());
+      var page = history != null ? scope.fork("history", history::newest) : null;
+      scope.join();
+      TIME.since(t0);
+      return new Ready(friends.get(), incoming.get(), outgoing.get(),
+          page != null && page.get() != null ? page.get() : List.of(),
+          scope.failures(), NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+  }
+
+  /**
+   * Calls forked on virtual threads under one deadline. {@link #join} waits for all of them or
+   * the deadline, then cancels the stragglers; {@link #close} waits until they are gone.
+   * (StructuredTaskScope does the same, but is a preview API in Java 21.)
+   */
+  static final class Scope implements AutoCloseable {
+    private final ExecutorService threads =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bootstrap-", 0).factory());
+    private final Map<String, Future<?>> forked = new LinkedHashMap<>();
+    private final long timeoutMs;
+    private final long deadline;
+
+    Scope(long timeoutMs) {
+      this.timeoutMs = timeoutMs;
+      this.deadline = System.nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    /** The returned supplier gives the result after {@link #join}, or null if the call did not succeed. */
+    <T> Supplier<T> fork(String name, Callable<T> call) {
+      var f = threads.submit(call);
+      forked.put(name, f);
+      return () -> f.state() == Future.State.SUCCESS ? f.resultNow() : null;
+    }
+
+    void join() throws InterruptedException {
+      try {
+        for (var f : forked.values()) {
+          try {
+            f.get(Math.max(0, deadline - System.nanoTime()), NANOSECONDS);
+          } catch (ExecutionException | TimeoutException | CancellationException ignored) {
+            // reported by failures()
+          }
+        }
+      } finally {
+        for (var f : forked.values()) f.cancel(true);
+      }
+    }
+
+    Map<String, Throwable> failures() {
+      var out = new LinkedHashMap<String, Throwable>();
+      forked.forEach((name, f) -> {
+        switch (f.state()) {
+          case SUCCESS -> { }
+          case FAILED -> out.put(name, f.exceptionNow());
+          default -> out.put(name, new TimeoutException("no answer within " + timeoutMs + " ms"));
+        }
+      });
+      return out;
+    }
+
+    @Override public void close() {
+      threads.shutdownNow();
+      threads.close();
+    }
+  }
+}
@@ -3,7 +3,7 @@ package com.example.chatclient;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
-import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.ListCell;
@@ -11,21 +11,24 @@ import javafx.scene.layout.*;
 import javafx.stage.Stage;
 
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class ChatApp extends Application {
 
   // Config
   private static final String API_BASE = System.getProperty("apiBase", "https://chat-server-wot9.onrender.com");
   private static final String WS_URL   = System.getProperty("wsUrl",   "wss://chat-server-wot9.onrender.com/ws-native");
-  private static final DateTimeFormatter TS =
-      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
-  // Services
-  private final ApiClient api = new ApiClient(API_BASE);
-  private final StompService stomp = new StompService();
-  private String currentUser;
+  // Services: built off the FX thread in init(), while the login pane comes up
+  private final TaskRunner tasks = new TaskRunner();
+  private CompletableFuture<ApiClient> apiInit;
+  private CompletableFuture<StompService> stompInit;
+  private CompletableFuture<ChatClient> clientInit;
+  private final UserSearchIndex searchIndex = new UserSearchIndex();
+  private static final Metrics.Histogram FX_QUEUE = Metrics.histogram("fx runLater delay");
+  private static final boolean STARTUP_LOG = Boolean.getBoolean("startupTiming");
+  private volatile MessageIndex messageIndex;
 
   // Small view models
   private static class UserItem {
@@ -38,76 +41,165 @@ public class ChatApp extends Application {
     IncomingReq(String id, String from, String at){ this.id=id; this.from=from; this.at=at; }
     @Override public String toString(){ return "from " + from + " · " + at; }
   }
+  private static class OutgoingReq {
+    final String id, to, at;
+    OutgoingReq(String id, String to, String at){ this.id=id; this.to=to; this.at=at; }
+    @Override public String toString(){ return "to " + to + " · " + at; }
+  }
+  private static class MessageHit {
+    final String conversationId; final ChatMessage m;
+    MessageHit(String c, ChatMessage m){ this.conversationId=c; this.m=m; }
+    @Override public String toString(){ return m.sender() + ": " + m.content() + "  · " + conversationId.substring(0, 8); }
+  }
   private static class FriendItem {
     final String username, displayName;
     FriendItem(String u, String d){ this.username=u; this.displayName=d; }
     @Override public String toString(){ return username + " (" + displayName + ")"; }
   }
 
+  @Override public void init() {
+    apiInit = tasks.submit(() -> new ApiClient(API_BASE));
+    // TLS handshake and JSON deserializers get done while the user types
+    apiInit.thenAccept(ApiClient::prewarmAsync);
+    stompInit = tasks.submit(StompService::new);
+    // session, friends and messaging live in the client; this class only shows them
+    clientInit = apiInit.thenCombine(stompInit, (api, stomp) -> ChatClient.create(api, stomp, WS_URL));
+  }
+
+  private ApiClient api() { return apiInit.join(); }
+
+  private ChatClient client() { return clientInit.join(); }
+
+  /** Login and sign-up panes: everything that has to exist for the first frame. */
+  private static final class EntryPanes {
+    final TextField loginUser = new TextField("alice");
+    final PasswordField loginPass = new PasswordField();
+    final Button loginBtn = new Button("Login");
+    final Hyperlink toSignup = new Hyperlink("No account? Sign up");
+    final Label loginStatus = new Label();
+    final VBox loginPane = new VBox(8, new Label("Log in"), loginUser, loginPass, loginBtn, toSignup, loginStatus);
+
+    final TextField suUser = new TextField();
+    final TextField suName = new TextField();
+    final PasswordField suPass = new PasswordField();
+    final Button signupBtn = new Button("Create account");
+    final Hyperlink toLogin = new Hyperlink("Have an account? Log in");
+    final Label signupStatus = new Label();
+    final VBox signupPane = new VBox(8, new Label("Sign up"), suUser, suName, suPass, signupBtn, toLogin, signupStatus);
+
+    EntryPanes() {
+      loginUser.setPromptText("username");
+      loginPass.setPromptText("password");
+      loginPane.setPadding(new Insets(12));
+      suUser.setPromptText("username");
+      suName.setPromptText("display name");
+      suPass.setPromptText("password");
+      signupPane.setPadding(new Insets(12));
+      signupPane.setVisible(false); signupPane.setManaged(false);
+      // enabled once the rest of the UI behind them exists
+      loginBtn.setDisable(true);
+      signupBtn.setDisable(true);
+    }
+  }
+
+  /**
+   * Shows the login pane as soon as it can be drawn; the chat UI behind it is built right after
+   * its first frame, and the Search/Requests/Friends tabs only when first opened.
+   */
   @Override public void start(Stage stage) {
     stage.setTitle("JavaFX Chat");
-    final String[] token = new String[1];
+    var entry = new EntryPanes();
+    var root = new StackPane(entry.signupPane, entry.loginPane);
+    var scene = new Scene(root, 720, 620);
+    var cssUrl = getClass().getResource("/chat.css");
+    if (cssUrl != null) scene.getStylesheets().add(cssUrl.toExternalForm());
+    stage.setScene(scene);
+    stage.show();
+
+    Runnable[] firstFrame = new Runnable[1];
+    firstFrame[0] = () -> {
+      scene.removePostLayoutPulseListener(firstFrame[0]);
+      startupMark("login pane shown");
+      Platform.runLater(() -> {
+        buildMain(root, scene, entry);
+        startupMark("interactive");
+      });
+    };
+    scene.addPostLayoutPulseListener(firstFrame[0]);
+  }
+
+  private void buildMain(StackPane root, Scene scene, EntryPanes entry) {
+    var loginUser = entry.loginUser;
+    var loginPass = entry.loginPass;
+    var loginBtn = entry.loginBtn;
+    var loginStatus = entry.loginStatus;
+    var loginPane = entry.loginPane;
+    var signupBtn = entry.signupBtn;
+    var signupStatus = entry.signupStatus;
+    var signupPane = entry.signupPane;
+    var suUser = entry.suUser;
+    var suName = entry.suName;
+    var suPass = entry.suPass;
 
     // ===== Messages list =====
-    var items = javafx.collections.FXCollections.<ChatMessage>observableArrayList();
+    // bounded: the oldest lines give way to live ones, scroll-back brings them in again
+    var window = new ConversationWindow(ConversationWindow.CAPACITY);
+    var items = window.lines();
     var listView = new ListView<>(items);
     listView.setFocusTraversable(false);
     listView.setPrefHeight(360);
 
-    listView.setCellFactory(v -> new ListCell<>() {
-      @Override protected void updateItem(ChatMessage m, boolean empty) {
-        super.updateItem(m, empty);
-        if (empty || m == null) { setText(null); setGraphic(null); return; }
-
-        var time = TS.format(m.sentAt() != null ? m.sentAt() : Instant.now());
-
-        var header = new Label((m.sender() != null ? m.sender() : "system") + "  ·  " + time);
-        header.getStyleClass().add("msg-header");
-
-        var body = new Label(m.content());
-        body.setWrapText(true);
-        body.getStyleClass().add("msg-body");
-
-        var bubble = new VBox(2, header, body);
-        boolean mine = currentUser != null && m.sender() != null && m.sender().equalsIgnoreCase(currentUser);
+    var headerCache = new HeaderCache(4096);
+    listView.setCellFactory(v -> new MessageCell(() -> client().user(), headerCache));
 
-        bubble.getStyleClass().add(mine ? "bubble-me" : "bubble-other");
-        bubble.setMaxWidth(460);
+    // written on the FX thread, read by the message listener on the STOMP thread
+    final var activeConv = new java.util.concurrent.atomic.AtomicReference<String>();
+    // Live frames are applied once per pulse: one addAll, one scroll (see listener below)
+    final boolean[] following = {true}; // list scrolled to the bottom
+    var inbound = new FrameBatcher<ChatMessage>(batch -> window.append(batch, following[0]))
+        .timed(Metrics.histogram("fx inbound->render"));
+    inbound.start();
 
-        var row = new HBox(bubble);
-        row.setFillHeight(true);
-        row.setAlignment(mine ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
-        row.setPadding(new Insets(2, 8, 2, 8));
-
-        setGraphic(row);
-        setText(null);
-      }
+    items.addListener((javafx.collections.ListChangeListener<MessageLine>) c -> {
+      while (c.next()) if (c.wasAdded() && c.getTo() == items.size()) listView.scrollTo(items.size() - 1);
     });
 
-    items.addListener((javafx.collections.ListChangeListener<ChatMessage>) c -> {
-      while (c.next()) if (c.wasAdded()) listView.scrollTo(items.size() - 1);
+    // Older history pages load lazily when the list is scrolled to the top
+    final HistoryLoader[] pager = new HistoryLoader[1];
+    final boolean[] loadingOlder = new boolean[1];
+    Runnable loadOlder = () -> {
+      var loader = pager[0];
+      if (loader == null || loadingOlder[0]) return;
+      loadingOlder[0] = true;
+      // lines evicted since the last page: continue from what is on top now, not from where paging stopped
+      long rewindTo = window.takeEvicted() ? window.oldestEpochMs() : -1;
+      tasks.run(() -> {
+        try {
+          if (rewindTo >= 0) loader.rewind(rewindTo);
+          var page = loader.older();
+          fx(() -> {
+            loadingOlder[0] = false;
+            if (pager[0] != loader || page.isEmpty()) return;
+            int added = window.prepend(page);
+            listView.scrollTo(added);
+          });
+        } catch (Exception ex) {
+          fx(() -> loadingOlder[0] = false);
+        }
+      });
+    };
+    listView.skinProperty().addListener((obs, o, skin) -> {
+      for (var n : listView.lookupAll(".scroll-bar")) {
+        if (n instanceof ScrollBar bar && bar.getOrientation() == javafx.geometry.Orientation.VERTICAL) {
+          bar.valueProperty().addListener((o2, was, now) -> {
+            if (now.doubleValue() <= bar.getMin() && was.doubleValue() > bar.getMin()) loadOlder.run();
+            following[0] = now.doubleValue() >= bar.getMax();
+            if (following[0]) window.trim(); // back at the bottom: drop the pages read on the way up
+          });
+        }
+      }
     });
 
-    // ===== LOGIN PANE =====
-    var loginUser = new TextField("alice"); loginUser.setPromptText("username");
-    var loginPass = new PasswordField();    loginPass.setPromptText("password");
-    var loginBtn  = new Button("Login");
-    var toSignup  = new Hyperlink("No account? Sign up");
-    var loginStatus = new Label();
-    var loginPane = new VBox(8, new Label("Log in"), loginUser, loginPass, loginBtn, toSignup, loginStatus);
-    loginPane.setPadding(new Insets(12));
-
-    // ===== SIGNUP PANE =====
-    var suUser  = new TextField(); suUser.setPromptText("username");
-    var suName  = new TextField(); suName.setPromptText("display name");
-    var suPass  = new PasswordField(); suPass.setPromptText("password");
-    var signupBtn = new Button("Create account");
-    var toLogin   = new Hyperlink("Have an account? Log in");
-    var signupStatus = new Label();
-    var signupPane = new VBox(8, new Label("Sign up"), suUser, suName, suPass, signupBtn, toLogin, signupStatus);
-    signupPane.setPadding(new Insets(12));
-    signupPane.setVisible(false); signupPane.setManaged(false);
-
     // ===== CHAT CORE =====
     var conv = new TextField("11111111-1111-1111-1111-111111111111");
     var connectBtn = new Button("Connect");
@@ -122,14 +214,59 @@ public class ChatApp extends Application {
     connectBtn.getStyleClass().add("btn-primary");
     sendBtn.getStyleClass().add("btn-primary");
 
+    // Local full-text search over every stored conversation
+    var msgSearch = new TextField(); msgSearch.setPromptText("Search messages");
+    var msgHits = new ListView<MessageHit>();
+    msgHits.setPrefHeight(140);
+    msgHits.setVisible(false); msgHits.setManaged(false);
+    HBox.setHgrow(msgSearch, Priority.ALWAYS);
+
     var chatCore = new VBox(8,
         new HBox(8, new Label("Conversation:"), conv, connectBtn, status),
+        new HBox(8, msgSearch),
+        msgHits,
         listView,
         new HBox(8, input, sendBtn)
     );
     chatCore.setPadding(new Insets(12));
     chatCore.getStyleClass().add("section"); // (C)
 
+    var msgDebounce = new javafx.animation.PauseTransition(javafx.util.Duration.millis(150));
+    msgSearch.textProperty().addListener((obs, o, n) -> msgDebounce.playFromStart());
+    msgDebounce.setOnFinished(e -> {
+      var q = msgSearch.getText().trim();
+      var idx = messageIndex;
+      if (q.isEmpty() || idx == null) { msgHits.getItems().clear(); msgHits.setVisible(false); msgHits.setManaged(false); return; }
+      var store = client().history();
+      tasks.latest("msgsearch", () -> {
+        var hits = idx.search(q, 50);
+        // the index holds ids and record offsets; pull just those records from the local store
+        var byConv = new java.util.LinkedHashMap<String, java.util.List<MessageIndex.Hit>>();
+        for (var h : hits) byConv.computeIfAbsent(h.conversationId(), k -> new java.util.ArrayList<>()).add(h);
+        var found = new java.util.HashMap<Long, MessageHit>();
+        for (var c : byConv.entrySet()) {
+          for (var m : store.find(c.getKey(), c.getValue())) found.put(m.id(), new MessageHit(c.getKey(), m));
+        }
+        var out = new java.util.ArrayList<MessageHit>();
+        for (var h : hits) { var mh = found.get(h.messageId()); if (mh != null) out.add(mh); }
+        // the index keeps recent history only; what it dropped is searched in the files
+        if (out.size() < 50) {
+          for (var m : store.search(q, idx.horizonMs(), 50 - out.size())) out.add(new MessageHit(m.conversationId().toString(), m));
+        }
+        return out;
+      }).whenComplete((out, ex) -> fx(() -> {
+        if (ex != null) return;
+        msgHits.getItems().setAll(out);
+        msgHits.setVisible(!out.isEmpty()); msgHits.setManaged(!out.isEmpty());
+      }));
+    });
+    msgHits.setOnMouseClicked(e -> {
+      var hit = msgHits.getSelectionModel().getSelectedItem();
+      if (hit == null || e.getClickCount() < 2) return;
+      conv.setText(hit.conversationId);
+      connectBtn.fire();
+    });
+
     // ===== HOISTED buttons/controls (so cross-tabs can call them) =====
     final Button refreshFriends = new Button("Refresh");
     refreshFriends.getStyleClass().add("btn-ghost"); // (B)
@@ -139,267 +276,241 @@ public class ChatApp extends Application {
     final Button refreshReq = new Button("Refresh");
     refreshReq.getStyleClass().add("btn-ghost"); // (B)
 
-    // ===== REQUESTS TAB =====
-    var reqIncoming = new ListView<IncomingReq>();
-    reqIncoming.setPlaceholder(new Label("No incoming requests")); // helpful placeholder
-    reqIncoming.setCellFactory(lv -> new ListCell<>() {
-      private final Label label = new Label();
-      private final Button acceptBtn = new Button("Accept");
-      private final Button declineBtn = new Button("Decline");
-      { acceptBtn.getStyleClass().add("btn-primary"); declineBtn.getStyleClass().add("btn-danger"); }
-      private final Region spacer = new Region();
-      private final HBox box = new HBox(8, label, spacer, acceptBtn, declineBtn);
-      { HBox.setHgrow(spacer, Priority.ALWAYS); }
-      @Override protected void updateItem(IncomingReq it, boolean empty) {
-        super.updateItem(it, empty);
-        if (empty || it == null) { setGraphic(null); setText(null); return; }
-        label.setText(it.toString());
-        acceptBtn.setDisable(false); declineBtn.setDisable(false);
-
-        acceptBtn.setOnAction(ev -> {
-          acceptBtn.setDisable(true); declineBtn.setDisable(true);
-          new Thread(() -> {
-            try {
-              api.acceptRequest(it.id);
-              Platform.runLater(() -> {
-                getListView().getItems().remove(it);
-                status.setText("request accepted");
-                refreshFriends.fire(); // show friend immediately
-              });
-            } catch (Exception ex) {
-              Platform.runLater(() -> {
-                status.setText("accept failed: " + ex.getMessage());
-                acceptBtn.setDisable(false); declineBtn.setDisable(false);
-              });
-            }
-          }).start();
-        });
-
-        declineBtn.setOnAction(ev -> {
-          acceptBtn.setDisable(true); declineBtn.setDisable(true);
-          new Thread(() -> {
-            try {
-              api.declineRequest(it.id);
-              Platform.runLater(() -> {
-                getListView().getItems().remove(it);
-                status.setText("request declined");
-              });
-            } catch (Exception ex) {
-              Platform.runLater(() -> {
-                status.setText("decline failed: " + ex.getMessage());
-                acceptBtn.setDisable(false); declineBtn.setDisable(false);
-              });
-            }
-          }).start();
-        });
-        setGraphic(box); setText(null);
+    // Friends and requests: the client keeps them current (a snapshot after login and after each
+    // reconnect, pushed deltas in between). The tabs just show these lists, whenever they get built;
+    // snapshots are reconciled by key, so an update only touches rows that actually changed.
+    final var friendItems = new KeyedList<FriendItem, String>(f -> f.username.toLowerCase(java.util.Locale.ROOT), Object::toString);
+    final var incomingItems = new KeyedList<IncomingReq, String>(r -> r.id, Object::toString);
+    final var outgoingItems = new KeyedList<OutgoingReq, String>(r -> r.id, Object::toString);
+    clientInit.thenAccept(client -> client.addListener(new ChatClient.Listener() {
+      @Override public void onFriends(java.util.List<Friend> list) {
+        friendItems.reconcile(list.stream().map(f -> new FriendItem(f.username(), f.displayName())).toList());
       }
-    });
-
-    var reqOutgoing = new ListView<String>();
-    reqOutgoing.setPlaceholder(new Label("No outgoing requests"));
-
-    Runnable loadIncoming = () -> new Thread(() -> {
-      try {
-        var list = api.incomingRequests();
-        Platform.runLater(() -> {
-          reqIncoming.getItems().clear();
-          for (var r : list) {
-            reqIncoming.getItems().add(new IncomingReq(
-                String.valueOf(r.get("id")),
-                String.valueOf(r.get("from")),
-                String.valueOf(r.get("at"))
-            ));
-          }
-        });
-      } catch (Exception ex) {
-        Platform.runLater(() -> status.setText("load incoming failed: " + ex.getMessage()));
+      @Override public void onIncoming(java.util.List<FriendRequest> list) {
+        incomingItems.reconcile(list.stream().map(r -> new IncomingReq(r.id(), r.fromUsername(), r.createdAt())).toList());
       }
-    }).start();
-
-    Runnable loadOutgoing = () -> new Thread(() -> {
-      try {
-        var list = api.outgoingRequests();
-        Platform.runLater(() -> {
-          reqOutgoing.getItems().clear();
-          for (var r : list) {
-            reqOutgoing.getItems().add("to " + r.get("to") + " · " + r.get("at"));
-          }
-        });
-      } catch (Exception ex) {
-        Platform.runLater(() -> status.setText("load outgoing failed: " + ex.getMessage()));
+      @Override public void onOutgoing(java.util.List<FriendRequest> list) {
+        outgoingItems.reconcile(list.stream().map(r -> new OutgoingReq(r.id(), r.toUsername(), r.createdAt())).toList());
       }
-    }).start();
+    }, ChatApp::fx));
+    // manual reload of all three, past the HTTP cache
+    Runnable refreshLists = () -> tasks.sharedAsync("friends", () -> client().resync()).whenComplete((v, ex) ->
+        fx(() -> { if (ex != null) status.setText("refresh failed: " + rootMessage(ex)); }));
+
+    // ===== REQUESTS TAB (built on first open) =====
+    Supplier<Node> buildRequests = () -> {
+      var reqIncoming = new ListView<>(incomingItems);
+      reqIncoming.setPlaceholder(new Label("No incoming requests")); // helpful placeholder
+      reqIncoming.setCellFactory(lv -> new ListCell<>() {
+        private final Label label = new Label();
+        private final Button acceptBtn = new Button("Accept");
+        private final Button declineBtn = new Button("Decline");
+        { acceptBtn.getStyleClass().add("btn-primary"); declineBtn.getStyleClass().add("btn-danger"); }
+        private final Region spacer = new Region();
+        private final HBox box = new HBox(8, label, spacer, acceptBtn, declineBtn);
+        { HBox.setHgrow(spacer, Priority.ALWAYS); }
+        @Override protected void updateItem(IncomingReq it, boolean empty) {
+          super.updateItem(it, empty);
+          if (empty || it == null) { setGraphic(null); setText(null); return; }
+          label.setText(it.toString());
+          acceptBtn.setDisable(false); declineBtn.setDisable(false);
+
+          acceptBtn.setOnAction(ev -> {
+            acceptBtn.setDisable(true); declineBtn.setDisable(true);
+            tasks.run(() -> {
+              try {
+                client().acceptRequest(it.id);
+                fx(() -> status.setText("request accepted"));
+              } catch (Exception ex) {
+                fx(() -> {
+                  status.setText("accept failed: " + ex.getMessage());
+                  acceptBtn.setDisable(false); declineBtn.setDisable(false);
+                });
+              }
+            });
+          });
 
-    refreshReq.setOnAction(e -> {
-      if ("Incoming".equals(reqMode.getValue())) loadIncoming.run();
-      else loadOutgoing.run();
-    });
+          declineBtn.setOnAction(ev -> {
+            acceptBtn.setDisable(true); declineBtn.setDisable(true);
+            tasks.run(() -> {
+              try {
+                client().declineRequest(it.id);
+                fx(() -> status.setText("request declined"));
+              } catch (Exception ex) {
+                fx(() -> {
+                  status.setText("decline failed: " + ex.getMessage());
+                  acceptBtn.setDisable(false); declineBtn.setDisable(false);
+                });
+              }
+            });
+          });
+          setGraphic(box); setText(null);
+        }
+      });
+
+      var reqOutgoing = new ListView<>(outgoingItems);
+      reqOutgoing.setPlaceholder(new Label("No outgoing requests"));
+
+      refreshReq.setOnAction(e -> refreshLists.run());
+
+      var requestsCenter = new StackPane(reqIncoming, reqOutgoing);
+
+      reqMode.getSelectionModel().selectedItemProperty().addListener((obs, o, n) -> {
+        boolean incoming = "Incoming".equals(n);
+        reqIncoming.setVisible(incoming); reqIncoming.setManaged(incoming);
+        reqOutgoing.setVisible(!incoming); reqOutgoing.setManaged(!incoming);
+      });
 
-    var requestsCenter = new StackPane(reqIncoming, reqOutgoing);
-    reqOutgoing.setVisible(false); reqOutgoing.setManaged(false);
+      var requestsPane = new VBox(8, new HBox(8, new Label("View:"), reqMode, refreshReq), requestsCenter);
+      requestsPane.setPadding(new Insets(12));
+      requestsPane.getStyleClass().add("section"); // (C)
 
-    reqMode.getSelectionModel().selectedItemProperty().addListener((obs, o, n) -> {
-      boolean incoming = "Incoming".equals(n);
+      // a search may already have switched the view to Outgoing
+      boolean incoming = "Incoming".equals(reqMode.getValue());
       reqIncoming.setVisible(incoming); reqIncoming.setManaged(incoming);
       reqOutgoing.setVisible(!incoming); reqOutgoing.setManaged(!incoming);
-      refreshReq.fire(); // auto reload
-    });
+      return requestsPane;
+    };
 
-    var requestsPane = new VBox(8, new HBox(8, new Label("View:"), reqMode, refreshReq), requestsCenter);
-    requestsPane.setPadding(new Insets(12));
-    requestsPane.getStyleClass().add("section"); // (C)
-
-    // ===== FRIENDS TAB =====
-    var friendsList = new ListView<FriendItem>();
-    friendsList.setPlaceholder(new Label("No friends yet"));
-    friendsList.setCellFactory(lv -> new ListCell<>() {
-      private final Label label = new Label();
-      private final Button chatBtn = new Button("Open chat");
-      { chatBtn.getStyleClass().add("btn-primary"); }
-      private final Region spacer = new Region();
-      private final HBox box = new HBox(8, label, spacer, chatBtn);
-      { HBox.setHgrow(spacer, Priority.ALWAYS); }
-      @Override protected void updateItem(FriendItem it, boolean empty) {
-        super.updateItem(it, empty);
-        if (empty || it == null) { setGraphic(null); setText(null); return; }
-        label.setText(it.toString());
-        chatBtn.setOnAction(ev -> {
-          chatBtn.setDisable(true);
-          new Thread(() -> {
-            try {
-              var convId = api.openDm(it.username);
-              Platform.runLater(() -> {
-                chatBtn.setDisable(false);
-                conv.setText(convId);
-                connectBtn.fire();
-              });
-            } catch (Exception ex) {
-              Platform.runLater(() -> {
-                chatBtn.setDisable(false);
-                status.setText("open DM failed: " + ex.getMessage());
-              });
-            }
-          }).start();
-        });
-        setGraphic(box); setText(null);
-      }
-    });
+    // ===== FRIENDS TAB (built on first open) =====
+    Supplier<Node> buildFriends = () -> {
+      var friendsList = new ListView<>(friendItems);
+      friendsList.setPlaceholder(new Label("No friends yet"));
+      friendsList.setCellFactory(lv -> new ListCell<>() {
+        private final Label label = new Label();
+        private final Button chatBtn = new Button("Open chat");
+        { chatBtn.getStyleClass().add("btn-primary"); }
+        private final Region spacer = new Region();
+        private final HBox box = new HBox(8, label, spacer, chatBtn);
+        { HBox.setHgrow(spacer, Priority.ALWAYS); }
+        @Override protected void updateItem(FriendItem it, boolean empty) {
+          super.updateItem(it, empty);
+          if (empty || it == null) { setGraphic(null); setText(null); return; }
+          label.setText(it.toString());
+          chatBtn.setOnAction(ev -> {
+            chatBtn.setDisable(true);
+            tasks.run(() -> {
+              try {
+                var convId = api().openDm(it.username);
+                fx(() -> {
+                  chatBtn.setDisable(false);
+                  conv.setText(convId);
+                  connectBtn.fire();
+                });
+              } catch (Exception ex) {
+                fx(() -> {
+                  chatBtn.setDisable(false);
+                  status.setText("open DM failed: " + ex.getMessage());
+                });
+              }
+            });
+          });
+          setGraphic(box); setText(null);
+        }
+      });
 
-    var friendsPane = new VBox(8, new HBox(8, refreshFriends), friendsList);
-    friendsPane.setPadding(new Insets(12));
-    friendsPane.getStyleClass().add("section"); // (C)
-
-    refreshFriends.setOnAction(e -> new Thread(() -> {
-      try {
-        var list = api.listFriends();
-        Platform.runLater(() -> {
-          friendsList.getItems().clear();
-          for (var f : list) {
-            friendsList.getItems().add(new FriendItem(
-                String.valueOf(f.get("username")),
-                String.valueOf(f.get("displayName"))
-            ));
-          }
-        });
-      } catch (Exception ex) {
-        Platform.runLater(() -> status.setText("friends failed: " + ex.getMessage()));
-      }
-    }).start());
+      var friendsPane = new VBox(8, new HBox(8, refreshFriends), friendsList);
+      friendsPane.setPadding(new Insets(12));
+      friendsPane.getStyleClass().add("section"); // (C)
+
+      refreshFriends.setOnAction(e -> refreshLists.run());
+      return friendsPane;
+    };
 
     // ===== TABS =====
     var tabs = new TabPane();
     tabs.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
     tabs.getTabs().addAll(
         new Tab("Chat", chatCore),
-        new Tab("Requests", requestsPane),
-        new Tab("Friends", friendsPane)
+        lazyTab("Requests", buildRequests),
+        lazyTab("Friends", buildFriends)
     );
 
-    // ===== SEARCH TAB (built after Requests so we can reference reqMode/refreshReq) =====
-    var searchBox = new TextField(); searchBox.setPromptText("Search username");
-    var searchBtn = new Button("Search"); searchBtn.getStyleClass().add("btn-ghost"); // (B)
-    var searchResults = new ListView<UserItem>();
-    searchResults.setPlaceholder(new Label("No users found")); // <— placeholder
-    searchResults.setCellFactory(lv -> new ListCell<>() {
-      private final Label label = new Label();
-      private final Button addBtn = new Button("Add friend");
-      { addBtn.getStyleClass().add("btn-primary"); }
-      private final Region spacer = new Region();
-      private final HBox box = new HBox(8, label, spacer, addBtn);
-      { HBox.setHgrow(spacer, Priority.ALWAYS); }
-      @Override protected void updateItem(UserItem it, boolean empty) {
-        super.updateItem(it, empty);
-        if (empty || it == null) { setGraphic(null); setText(null); return; }
-        label.setText(it.toString());
-        addBtn.setDisable(false);
-        addBtn.setText("Add friend");
-        addBtn.setOnAction(ev -> {
-          addBtn.setDisable(true);
-          addBtn.setText("Sending...");
-          new Thread(() -> {
-            try {
-              api.sendFriendRequest(it.username);
-              Platform.runLater(() -> {
-                addBtn.setText("Sent ✓");
-                status.setText("friend request sent to " + it.username);
-                // Show it under Outgoing for immediate feedback
-                reqMode.setValue("Outgoing");
-                refreshReq.fire();
-              });
-            } catch (Exception ex) {
-              Platform.runLater(() -> {
-                status.setText("request failed: " + ex.getMessage());
-                addBtn.setDisable(false);
-                addBtn.setText("Add friend");
-              });
-            }
-          }).start();
-        });
-        setGraphic(box); setText(null);
-      }
-    });
-
-    // ENTER triggers search (no global default button needed)
-    searchBox.setOnAction(e -> searchBtn.fire());
+    // ===== SEARCH TAB (built on first open) =====
+    Supplier<Node> buildSearch = () -> {
+      var searchBox = new TextField(); searchBox.setPromptText("Search username");
+      var searchBtn = new Button("Search"); searchBtn.getStyleClass().add("btn-ghost"); // (B)
+      var searchItems = new KeyedList<UserItem, String>(u -> u.username.toLowerCase(java.util.Locale.ROOT), Object::toString);
+      var searchResults = new ListView<>(searchItems);
+      searchResults.setPlaceholder(new Label("No users found")); // <— placeholder
+      searchResults.setCellFactory(lv -> new ListCell<>() {
+        private final Label label = new Label();
+        private final Button addBtn = new Button("Add friend");
+        { addBtn.getStyleClass().add("btn-primary"); }
+        private final Region spacer = new Region();
+        private final HBox box = new HBox(8, label, spacer, addBtn);
+        { HBox.setHgrow(spacer, Priority.ALWAYS); }
+        @Override protected void updateItem(UserItem it, boolean empty) {
+          super.updateItem(it, empty);
+          if (empty || it == null) { setGraphic(null); setText(null); return; }
+          label.setText(it.toString());
+          addBtn.setDisable(false);
+          addBtn.setText("Add friend");
+          addBtn.setOnAction(ev -> {
+            addBtn.setDisable(true);
+            addBtn.setText("Sending...");
+            tasks.run(() -> {
+              try {
+                // listed under Outgoing right away; the pushed event is deduplicated by id
+                client().sendFriendRequest(it.username);
+                fx(() -> {
+                  addBtn.setText("Sent ✓");
+                  status.setText("friend request sent to " + it.username);
+                  reqMode.setValue("Outgoing");
+                });
+              } catch (Exception ex) {
+                fx(() -> {
+                  status.setText("request failed: " + ex.getMessage());
+                  addBtn.setDisable(false);
+                  addBtn.setText("Add friend");
+                });
+              }
+            });
+          });
+          setGraphic(box); setText(null);
+        }
+      });
 
-    var searchPane = new VBox(8, new HBox(8, searchBox, searchBtn), searchResults);
-    searchPane.setPadding(new Insets(12));
-    searchPane.getStyleClass().add("section"); // (C)
+      // ENTER triggers search (no global default button needed)
+      searchBox.setOnAction(e -> searchBtn.fire());
 
-    // Search action with loading feedback
-    searchBtn.setOnAction(e -> new Thread(() -> {
-      String q = searchBox.getText() == null ? "" : searchBox.getText().trim();
-      Platform.runLater(() -> {
-        status.setText(q.isEmpty() ? "Enter a username to search" : "Searching...");
-        searchBtn.setDisable(true);
+      // Search as you type: debounce keystrokes, drop the request for the previous text right away
+      var searchDebounce = new javafx.animation.PauseTransition(javafx.util.Duration.millis(Integer.getInteger("searchDebounceMs", 250)));
+      searchDebounce.setOnFinished(e -> { if (!searchBox.getText().isBlank()) searchBtn.fire(); });
+      searchBox.textProperty().addListener((obs, o, n) -> {
+        tasks.cancel("search");
+        searchDebounce.playFromStart();
       });
-      if (q.isEmpty()) {
-        Platform.runLater(() -> searchBtn.setDisable(false));
-        return;
-      }
-      try {
-        var results = api.searchUsers(q);
-        Platform.runLater(() -> {
-          searchResults.getItems().clear();
-          for (var u : results) {
-            searchResults.getItems().add(new UserItem(
-                String.valueOf(u.get("username")),
-                String.valueOf(u.get("displayName"))
-            ));
-          }
+
+      var searchPane = new VBox(8, new HBox(8, searchBox, searchBtn), searchResults);
+      searchPane.setPadding(new Insets(12));
+      searchPane.getStyleClass().add("section"); // (C)
+
+      // Search action with loading feedback
+      searchBtn.setOnAction(e -> {
+        String q = searchBox.getText() == null ? "" : searchBox.getText().trim();
+        if (q.isEmpty()) { status.setText("Enter a username to search"); return; }
+        java.util.function.Consumer<java.util.List<UserSummary>> show = results -> {
+          searchItems.reconcile(results.stream().map(u -> new UserItem(u.username(), u.displayName())).toList());
           status.setText(results.isEmpty() ? "No users found" : "");
-          searchBtn.setDisable(false);
-        });
-      } catch (Exception ex) {
-        Platform.runLater(() -> {
-          status.setText("search failed: " + ex.getMessage());
-          searchBtn.setDisable(false);
-        });
-      }
-    }).start());
+        };
+        // refinements of a query whose full result we already have never leave the client
+        var local = searchIndex.answer(q);
+        if (local != null) { tasks.cancel("search"); show.accept(local); return; }
+
+        status.setText("Searching...");
+        // a newer search cancels the one still in flight
+        tasks.latestAsync("search", () -> api().searchUsersAsync(q)).whenComplete((results, ex) -> fx(() -> {
+          if (ex instanceof java.util.concurrent.CancellationException) return;
+          if (ex != null) { status.setText("search failed: " + rootMessage(ex)); return; }
+          searchIndex.record(q, results);
+          if (q.equals(searchBox.getText().trim())) show.accept(results);
+        }));
+      });
+      return searchPane;
+    };
 
-    tabs.getTabs().add(1, new Tab("Search", searchPane)); // insert Search between Chat and Requests
+    tabs.getTabs().add(1, lazyTab("Search", buildSearch)); // insert Search between Chat and Requests
 
     // ===== Premium App Bar (A) =====
     Label appTitle = new Label("ChitChat");
@@ -440,48 +551,85 @@ public class ChatApp extends Application {
       chatPane.setVisible(true); chatPane.setManaged(true);
     };
 
-    toSignup.setOnAction(e -> showSignup.run());
-    toLogin.setOnAction(e -> showLogin.run());
+    entry.toSignup.setOnAction(e -> showSignup.run());
+    entry.toLogin.setOnAction(e -> showLogin.run());
+
+    // ===== OPEN CONVERSATION + POST-LOGIN BOOTSTRAP =====
+    // Shows a conversation and subscribes to it; fetching its history and connecting is up to the caller
+    java.util.function.Function<String, HistoryLoader> openConversation = conversationId -> {
+      // one shared session: switching conversations is just UNSUBSCRIBE + SUBSCRIBE
+      var prev = activeConv.getAndSet(conversationId);
+      if (prev != null && !prev.equals(conversationId)) client().close(prev);
+      conv.setText(conversationId);
+      inbound.clear();
+      final var loader = client().open(conversationId);
+      pager[0] = loader;
+      window.open(java.util.UUID.fromString(conversationId));
+      following[0] = true;
+      final var store = client().history();
+      tasks.run(() -> store.setLastOpened(conversationId));
+      return loader;
+    };
+
+    // After login: lists, session and the last conversation at once, one "ready" at the end
+    java.util.function.Consumer<String> bootstrap = last -> {
+      var loader = last != null ? openConversation.apply(last) : null;
+      status.setText("loading...");
+      connectBtn.setDisable(true);
+      tasks.submit(() -> client().bootstrap(loader)).whenComplete((r, ex) -> fx(() -> {
+        connectBtn.setDisable(false);
+        if (ex != null) { status.setText("loading failed: " + rootMessage(ex)); return; }
+        if (loader != null && pager[0] == loader) {
+          window.prepend(r.history());
+          client().markSeen(last, r.history());
+        }
+        sendBtn.setDisable(!r.connected());
+        status.setText(r.failures().isEmpty()
+            ? "ready in " + r.millis() + " ms"
+            : "ready in " + r.millis() + " ms, failed: " + String.join(", ", r.failures().keySet()));
+      }));
+    };
 
     // ===== LOGIN =====
     loginBtn.setOnAction(e -> {
       loginBtn.setDisable(true);
       loginStatus.setText("Logging in...");
-      new Thread(() -> {
+      tasks.run(() -> {
         var u = loginUser.getText().trim().toLowerCase();
         var p = loginPass.getText();
         try {
-          token[0] = api.login(u, p);
-          currentUser = u;
-          Platform.runLater(() -> {
+          client().login(u, p, HistoryStore.defaultDir(u));
+          searchIndex.clear();
+          messageIndex = MessageIndex.open(HistoryStore.defaultDir(u).resolve("index.bin"));
+          client().history().indexInto(messageIndex);
+          var last = client().history().lastOpened();
+          fx(() -> {
             loginStatus.setText("Login OK");
-            headerUser.setText("@" + currentUser);
+            headerUser.setText("@" + client().user());
             showChat.run();
-            // Auto refresh lists on login
-            refreshFriends.fire();
-            refreshReq.fire();
+            bootstrap.accept(last);
           });
         } catch (Exception ex) {
-          Platform.runLater(() -> {
+          fx(() -> {
             loginBtn.setDisable(false);
             loginStatus.setText("Login failed: " + (ex.getMessage() != null ? ex.getMessage() : ex));
           });
         }
-      }).start();
+      });
     });
 
     // ===== SIGNUP =====
     signupBtn.setOnAction(e -> {
       signupBtn.setDisable(true);
       signupStatus.setText("Creating account...");
-      new Thread(() -> {
+      tasks.run(() -> {
         var u = suUser.getText().trim().toLowerCase();
         var n = suName.getText().trim();
         if (n.isEmpty() && !u.isEmpty()) n = Character.toUpperCase(u.charAt(0)) + u.substring(1);
         var p = suPass.getText();
         try {
-          api.register(u, n, p);
-          Platform.runLater(() -> {
+          client().register(u, n, p);
+          fx(() -> {
             signupStatus.setText("Account created. Please log in.");
             signupBtn.setDisable(false);
             showLogin.run();
@@ -489,78 +637,180 @@ public class ChatApp extends Application {
             loginPass.setText(p);
           });
         } catch (Exception ex) {
-          Platform.runLater(() -> {
+          fx(() -> {
             signupBtn.setDisable(false);
             signupStatus.setText("Sign up failed: " + (ex.getMessage() != null ? ex.getMessage() : ex));
           });
         }
-      }).start();
+      });
     });
 
     // ===== CONNECT =====
+    clientInit.thenAccept(client -> {
+      // straight from the STOMP thread: the batcher applies frames once per pulse
+      client.addListener(new ChatClient.Listener() {
+        @Override public void onMessage(String conversationId, ChatMessage m) {
+          if (conversationId.equals(activeConv.get())) inbound.offer(m);
+        }
+      });
+      client.addListener(new ChatClient.Listener() {
+        @Override public void onState(StompService.State state, Throwable cause) {
+          switch (state) {
+            case CONNECTED -> { status.setText("connected"); sendBtn.setDisable(false); }
+            case RECONNECTING -> status.setText("reconnecting..."); // sends queue up meanwhile
+            case DISCONNECTED -> { status.setText("offline"); sendBtn.setDisable(true); }
+          }
+        }
+      }, ChatApp::fx);
+    });
     connectBtn.setOnAction(e -> {
       connectBtn.setDisable(true);
       status.setText("connecting...");
 
-      if (token[0] == null || token[0].isBlank()) {
+      var client = clientInit.getNow(null);
+      if (client == null || client.user() == null) {
         status.setText("no token — log in first");
         connectBtn.setDisable(false);
         return;
       }
 
-      final var conversationId = conv.getText().trim();
-
-      stomp.connect(
-          WS_URL,
-          token[0],
-          conversationId,
-
-          m -> Platform.runLater(() -> items.add(m)),
-
-          () -> Platform.runLater(() -> {
-            status.setText("connected");
-            items.add(new ChatMessage(
-                null,
-                java.util.UUID.fromString(conversationId),
-                "system",
-                "connected",
-                java.time.Instant.now()
-            ));
-            sendBtn.setDisable(false);
-          }),
-
-          err -> Platform.runLater(() -> {
-            status.setText("error");
-            items.add(new ChatMessage(
-                null,
-                java.util.UUID.fromString(conversationId),
-                "system",
-                "connect error: " + err.getMessage(),
-                java.time.Instant.now()
-            ));
-            connectBtn.setDisable(false);
-            sendBtn.setDisable(true);
-          })
-      );
+      final var conversationId = conversationId(conv.getText());
+      if (conversationId == null) {
+        status.setText("not a conversation id: " + conv.getText().trim());
+        connectBtn.setDisable(false);
+        return;
+      }
+      final var loader = openConversation.apply(conversationId);
+
+      // newest page first (local store + delta); live frames may already be showing
+      tasks.run(() -> {
+        try {
+          var past = loader.newest();
+          fx(() -> {
+            if (pager[0] != loader) return;
+            window.prepend(past);
+            client.markSeen(conversationId, past);
+          });
+        } catch (Exception ex) {
+          fx(() -> status.setText("history failed: " + ex.getMessage()));
+        }
+      });
+
+      client.connect().whenComplete((v, err) -> fx(() -> {
+        connectBtn.setDisable(false);
+        if (err != null) {
+          status.setText("error");
+          if (conversationId.equals(activeConv.get())) window.append(window.system("connect error: " + rootMessage(err)), following[0]);
+          return;
+        }
+        if (!conversationId.equals(activeConv.get())) return;
+        status.setText("connected");
+        window.append(window.system("connected"), following[0]);
+        sendBtn.setDisable(false);
+      }));
     });
 
     // ===== SEND =====
     sendBtn.setOnAction(e -> {
       String text = input.getText().trim(); if (text.isEmpty()) return;
-      stomp.send(conv.getText().trim(), text);
-      items.add(new ChatMessage(null, java.util.UUID.fromString(conv.getText().trim()),
-          "system", "sent: " + text, Instant.now()));
+      var conversationId = conversationId(conv.getText());
+      if (conversationId == null) { status.setText("not a conversation id: " + conv.getText().trim()); return; }
+      var line = window.system("sending: " + text);
+      window.append(line, true);
       input.clear();
+      // queued (and journaled) by StompService; the line flips once the server acknowledged it
+      client().send(conversationId, text).whenComplete((ok, ex) -> fx(() -> {
+        int i = items.lastIndexOf(line);
+        if (i < 0) return; // evicted or another conversation by now
+        items.set(i, window.system((ex == null ? "sent: " : "not sent: ") + text, line.sentAtMs()));
+      }));
     });
 
-    // ===== Root + Scene (D) =====
-    var root = new StackPane(chatPane, signupPane, loginPane);
-    var scene = new Scene(root, 720, 620);
-    var cssUrl = getClass().getResource("/chat.css");
-    if (cssUrl != null) scene.getStylesheets().add(cssUrl.toExternalForm());
+    // ===== Root (D): chat goes underneath the entry panes =====
+    root.getChildren().add(0, chatPane);
+
+    // Diagnostics overlay (F12): the same numbers the MXBeans expose, refreshed every second
+    var diag = new TextArea();
+    diag.setEditable(false);
+    diag.setFocusTraversable(false);
+    diag.setStyle("-fx-font-family: monospace; -fx-font-size: 11px; -fx-opacity: 0.92;");
+    diag.setMaxSize(700, 320);
+    diag.setVisible(false);
+    StackPane.setAlignment(diag, javafx.geometry.Pos.BOTTOM_CENTER);
+    root.getChildren().add(diag);
+    var diagRefresh = new javafx.animation.Timeline(new javafx.animation.KeyFrame(javafx.util.Duration.seconds(1),
+        e -> {
+          // network round trip next to the client-side timings below
+          var st = stompInit.getNow(null);
+          double rtt = st != null ? st.rttMillis() : -1;
+          diag.setText((rtt < 0 ? "ws rtt now: -" : String.format(java.util.Locale.ROOT, "ws rtt now: %.1f ms", rtt))
+              + "\n" + Metrics.report());
+        }));
+    diagRefresh.setCycleCount(javafx.animation.Animation.INDEFINITE);
+    scene.addEventFilter(javafx.scene.input.KeyEvent.KEY_PRESSED, e -> {
+      if (e.getCode() != javafx.scene.input.KeyCode.F12) return;
+      diag.setVisible(!diag.isVisible());
+      if (diag.isVisible()) { diag.setText(Metrics.report()); diagRefresh.play(); } else diagRefresh.stop();
+      e.consume();
+    });
 
-    stage.setScene(scene);
-    stage.show();
+    loginBtn.setDisable(false);
+    signupBtn.setDisable(false);
+  }
+
+  /** Tab whose content is built the first time it is selected. */
+  private static Tab lazyTab(String title, Supplier<Node> build) {
+    var tab = new Tab(title);
+    tab.selectedProperty().addListener((obs, was, now) -> {
+      if (now && tab.getContent() == null) tab.setContent(build.get());
+    });
+    return tab;
+  }
+
+  /**
+   * Records the time since process start as "startup {@code what}" (F12 overlay, JMX);
+   * {@code -DstartupTiming=true} also prints it. Compare runs with and without {@code -Pcds}.
+   */
+  private static void startupMark(String what) {
+    ProcessHandle.current().info().startInstant().ifPresent(t -> {
+      var since = java.time.Duration.between(t, Instant.now());
+      Metrics.histogram("startup " + what).record(since.toNanos());
+      if (STARTUP_LOG) System.err.println("startup: " + what + " after " + since.toMillis() + " ms");
+    });
+  }
+
+  @Override public void stop() {
+    tasks.close();
+    // writes out live frames still queued for the history files
+    clientInit.thenAccept(ChatClient::close);
+    var idx = messageIndex;
+    if (idx != null) {
+      try { idx.save(); } catch (java.io.IOException ignored) { }
+    }
+  }
+
+  /** {@code Platform.runLater}, recording how long {@code r} waited for the FX thread. */
+  private static void fx(Runnable r) {
+    long t0 = System.nanoTime();
+    Platform.runLater(() -> {
+      FX_QUEUE.since(t0);
+      r.run();
+    });
+  }
+
+  /** {@code text} as a canonical conversation id, or null if it is not a UUID. */
+  private static String conversationId(String text) {
+    try {
+      return java.util.UUID.fromString(text.trim()).toString();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static String rootMessage(Throwable ex) {
+    while ((ex instanceof java.util.concurrent.CompletionException
+        || ex instanceof java.util.concurrent.ExecutionException) && ex.getCause() != null) ex = ex.getCause();
+    return ex.getMessage() != null ? ex.getMessage() : ex.toString();
   }
 
   public static void main(String[] args) { launch(args); }
@@ -0,0 +1,263 @@
+package com.example.chatclient;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * One user's chat session without any UI: login, friends and requests kept current from pushed
+ * events, open conversations and sending, on top of {@link ApiClient} and {@link StompService}.
+ * The desktop app is one consumer of it; bots and relays run hundreds in one JVM (both
+ * services share their threads and connections across instances).
+ *
+ * Thread-safe. Events go to {@link Listener}s, each on the executor it was registered with, in
+ * the order they happened. Friend and request lists are delivered as complete immutable
+ * snapshots, so a consumer only ever replaces what it shows.
+ */
+public class ChatClient implements AutoCloseable {
+
+  /** Callbacks are no-ops unless overridden. With a direct executor, keep them short. */
+  public interface Listener {
+    default void onMessage(String conversationId, ChatMessage message) { }
+    default void onFriends(List<Friend> friends) { }
+    default void onIncoming(List<FriendRequest> incoming) { }
+    default void onOutgoing(List<FriendRequest> outgoing) { }
+    default void onState(StompService.State state, Throwable cause) { }
+  }
+
+  private record Registration(Listener listener, Executor executor) {}
+
+  private final ApiClient api;
+  private final StompService stomp;
+  private final String wsUrl;
+  private final List<Registration> listeners = new CopyOnWriteArrayList<>();
+  private volatile String token;
+  private volatile String user;
+  private volatile HistoryStore history;
+
+  // replaced wholesale under the lock, never modified
+  private List<Friend> friends = List.of();
+  private List<FriendRequest> incoming = List.of();
+  private List<FriendRequest> outgoing = List.of();
+
+  private ChatClient(ApiClient api, StompService stomp, String wsUrl) {
+    this.api = api; this.stomp = stomp; this.wsUrl = wsUrl;
+  }
+
+  /**
+   * A client on {@code api} and {@code stomp}, which it takes over (gap-fill, friend events,
+   * state). Wired up here rather than in the constructor so no callback sees a half-built client.
+   */
+  public static ChatClient create(ApiClient api, StompService stomp, String wsUrl) {
+    var c = new ChatClient(api, stomp, wsUrl);
+    // messages missed while the socket was down are gap-filled by StompService after it reconnects
+    stomp.setGapFill(api::loadMessagesAfter);
+    stomp.onFriendEvents(c::apply, () -> c.resync().exceptionally(ex -> null));
+    stomp.setStateListener((state, cause) -> c.emit(l -> l.onState(state, cause)));
+    return c;
+  }
+
+  public void addListener(Listener listener, Executor executor) {
+    listeners.add(new Registration(listener, executor));
+  }
+
+  /** Calls {@code listener} on whichever thread the event arises (HTTP, STOMP). */
+  public void addListener(Listener listener) { addListener(listener, Runnable::run); }
+
+  public void removeListener(Listener listener) {
+    listeners.removeIf(r -> r.listener() == listener);
+  }
+
+  /**
+   * Logs in. With a {@code dataDir}, history is kept there and sends are journaled until the
+   * server confirmed them; without one, nothing touches the disk.
+   */
+  public void login(String username, String password, Path dataDir) throws Exception {
+    var u = username.trim().toLowerCase();
+    token = api.login(u, password);
+    user = u;
+    stomp.setUser(u);
+    var previous = history;
+    if (previous != null) previous.close();
+    history = null;
+    if (dataDir != null) {
+      history = new HistoryStore(dataDir);
+      stomp.useOutbox(dataDir.resolve("outbox.journal"));
+    }
+  }
+
+  public void register(String username, String displayName, String password) throws Exception {
+    api.register(username, displayName, password);
+  }
+
+  /** After {@link #login}: lists, session and optionally one conversation's newest page at once. */
+  public Bootstrap.Ready bootstrap(HistoryLoader history) throws InterruptedException {
+    var r = new Bootstrap(api, stomp).run(wsUrl, requireToken(), history);
+    synchronized (this) {
+      publish(r.friends() != null ? r.friends() : friends,
+          r.incoming() != null ? r.incoming() : incoming,
+          r.outgoing() != null ? r.outgoing() : outgoing);
+    }
+    return r;
+  }
+
+  /** Opens the session, or returns right away if it is up. */
+  public CompletableFuture<Void> connect() {
+    return stomp.connect(wsUrl, requireToken(), null).thenApply(s -> null);
+  }
+
+  /**
+   * Delivers {@code conversationId}'s live messages to the listeners (and the local store).
+   * Returns its pager, or null without a data directory.
+   */
+  public HistoryLoader open(String conversationId) {
+    var store = history;
+    return open(conversationId, store != null ? store.syncedThrough(conversationId) : 0);
+  }
+
+  /**
+   * {@link #open(String)} for a caller that knows the newest server sentAt (ms) it already has of
+   * {@code conversationId}; gap-fill after a reconnect starts there. 0 if nothing is known.
+   */
+  public HistoryLoader open(String conversationId, long seenThroughMs) {
+    var store = history;
+    stomp.subscribe(conversationId, m -> {
+      // queued: this is the socket's I/O thread
+      if (store != null) store.appendLater(conversationId, m);
+      emit(l -> l.onMessage(conversationId, m));
+    }, seenThroughMs);
+    return store != null ? new HistoryLoader(api, store, conversationId) : null;
+  }
+
+  public void close(String conversationId) { stomp.unsubscribe(conversationId); }
+
+  /** Messages the caller already has (a history page), so live delivery and gap-fill skip them. */
+  public void markSeen(String conversationId, List<ChatMessage> messages) { stomp.markSeen(conversationId, messages); }
+
+  /** Queued and journaled; completes once the server acknowledged it. Works offline. */
+  public CompletableFuture<Void> send(String conversationId, String content) {
+    return stomp.send(conversationId, content);
+  }
+
+  /** Sends a request and lists it under outgoing right away; the pushed event is deduplicated by id. */
+  public String sendFriendRequest(String username) throws Exception {
+    var id = api.sendFriendRequest(username);
+    apply(new FriendEvent(FriendEvent.Type.REQUEST_CREATED, new FriendRequest(id,
+        new FriendRequest.UserRef(user), new FriendRequest.UserRef(username), java.time.Instant.now().toString())));
+    return id;
+  }
+
+  public void acceptRequest(String requestId) throws Exception {
+    api.acceptRequest(requestId);
+    var r = incomingById(requestId);
+    if (r != null) apply(new FriendEvent(FriendEvent.Type.REQUEST_ACCEPTED, r));
+  }
+
+  public void declineRequest(String requestId) throws Exception {
+    api.declineRequest(requestId);
+    var r = incomingById(requestId);
+    if (r != null) apply(new FriendEvent(FriendEvent.Type.REQUEST_DECLINED, r));
+  }
+
+  /** Reloads friends and both request lists past the HTTP cache; done after every reconnect. */
+  public CompletableFuture<Void> resync() {
+    api.invalidateCache("/api/friends");
+    var f = api.listFriendsAsync();
+    var in = api.incomingRequestsAsync();
+    var out = api.outgoingRequestsAsync();
+    return CompletableFuture.allOf(f, in, out).thenRun(() -> {
+      synchronized (this) { publish(f.join(), in.join(), out.join()); }
+    });
+  }
+
+  public synchronized List<Friend> friends() { return friends; }
+  public synchronized List<FriendRequest> incoming() { return incoming; }
+  public synchronized List<FriendRequest> outgoing() { return outgoing; }
+
+  /** Logged-in username (lowercase), or null. */
+  public String user() { return user; }
+
+  /** Local store of the logged-in user, or null without a data directory. */
+  public HistoryStore history() { return history; }
+
+  public ApiClient api() { return api; }
+
+  public StompService stomp() { return stomp; }
+
+  @Override public void close() {
+    stomp.disconnect();
+    listeners.clear();
+    var store = history;
+    if (store != null) store.close();
+  }
+
+  private String requireToken() {
+    var t = token;
+    if (t == null) throw new IllegalStateException("not logged in");
+    return t;
+  }
+
+  /** Incoming rows only carry {@code from}; the event needs both parties. */
+  private synchronized FriendRequest incomingById(String id) {
+    for (var r : incoming) {
+      if (r.id().equals(id)) return new FriendRequest(r.id(), r.from(), new FriendRequest.UserRef(user), r.createdAt());
+    }
+    return null;
+  }
+
+  private synchronized void apply(FriendEvent ev) {
+    var r = ev.request();
+    var in = without(incoming, r.id());
+    var out = without(outgoing, r.id());
+    var fr = friends;
+    boolean toMe = user != null && user.equalsIgnoreCase(r.toUsername());
+    switch (ev.type()) {
+      case REQUEST_CREATED -> {
+        if (toMe) in = with(in, r); else out = with(out, r);
+      }
+      case REQUEST_ACCEPTED -> {
+        var peer = toMe ? r.from() : r.to();
+        if (peer != null && fr.stream().noneMatch(f -> f.username().equalsIgnoreCase(peer.username()))) {
+          fr = with(fr, new Friend(peer.username(), peer.displayName() != null ? peer.displayName() : peer.username()));
+        }
+      }
+      case REQUEST_DECLINED -> { }
+    }
+    publish(fr, in, out);
+  }
+
+  /** Under the lock, so listeners see snapshots in the order they were made. */
+  private void publish(List<Friend> fr, List<FriendRequest> in, List<FriendRequest> out) {
+    if (fr != friends) { var s = friends = List.copyOf(fr); emit(l -> l.onFriends(s)); }
+    if (in != incoming) { var s = incoming = List.copyOf(in); emit(l -> l.onIncoming(s)); }
+    if (out != outgoing) { var s = outgoing = List.copyOf(out); emit(l -> l.onOutgoing(s)); }
+  }
+
+  private void emit(Consumer<Listener> event) {
+    for (var r : listeners) {
+      r.executor().execute(() -> {
+        try {
+          event.accept(r.listener());
+        } catch (RuntimeException ignored) {
+          // one listener's failure must not keep the event from the others
+        }
+      });
+    }
+  }
+
+  private static List<FriendRequest> without(List<FriendRequest> list, String id) {
+    if (list.stream().noneMatch(r -> r.id().equals(id))) return list;
+    return list.stream().filter(r -> !r.id().equals(id)).toList();
+  }
+
+  private static <T> List<T> with(List<T> list, T item) {
+    var copy = new ArrayList<T>(list.size() + 1);
+    copy.addAll(list);
+    copy.add(item);
+    return copy;
+  }
+}
@@ -0,0 +1,116 @@
+package com.example.chatclient;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * What the chat list shows for the open conversation, bounded to a fixed number of lines.
+ *
+ * Live lines go to the bottom and, while the user follows the conversation, push the oldest
+ * ones out at the top. Pages loaded on scroll-back go on top and stay until the user is back at
+ * the bottom; if live traffic keeps arriving meanwhile, the top is cut anyway at twice the
+ * capacity. Evicted messages are still in the {@link HistoryStore} and come back through
+ * {@link HistoryLoader#rewind} once scrolled to again. FX thread only.
+ */
+public class ConversationWindow {
+  public static final int CAPACITY = Integer.getInteger("chatWindow", 500);
+
+  private final int capacity;
+  private final ObservableList<MessageLine> lines = FXCollections.observableArrayList();
+  private final Map<String, String> senders = new HashMap<>();
+  private UUID conversationId;
+  private boolean evicted;
+
+  public ConversationWindow(int capacity) { this.capacity = capacity; }
+
+  public ObservableList<MessageLine> lines() { return lines; }
+
+  public UUID conversationId() { return conversationId; }
+
+  /** Switches to another conversation; everything shown so far is dropped. */
+  public void open(UUID conversationId) {
+    this.conversationId = conversationId;
+    lines.clear();
+    senders.clear();
+    evicted = false;
+  }
+
+  public boolean shows(ChatMessage m) {
+    return m.conversationId() == null || m.conversationId().equals(conversationId);
+  }
+
+  public MessageLine compact(ChatMessage m) {
+    return new MessageLine(
+        m.id() != null ? m.id() : MessageLine.NO_ID,
+        intern(m.sender()),
+        m.content(),
+        m.sentAt() != null ? m.sentAt().toEpochMilli() : System.currentTimeMillis());
+  }
+
+  public MessageLine system(String text) { return system(text, System.currentTimeMillis()); }
+
+  public MessageLine system(String text, long atMs) {
+    return new MessageLine(MessageLine.NO_ID, intern("system"), text, atMs);
+  }
+
+  /** Live messages of this conversation; others in {@code batch} are ignored. */
+  public void append(List<ChatMessage> batch, boolean following) {
+    var add = new ArrayList<MessageLine>(batch.size());
+    for (var m : batch) if (shows(m)) add.add(compact(m));
+    if (add.isEmpty()) return;
+    lines.addAll(add);
+    bound(following);
+  }
+
+  public void append(MessageLine line, boolean following) {
+    lines.add(line);
+    bound(following);
+  }
+
+  /** Older messages on top, minus any already shown. Returns how many were added. */
+  public int prepend(List<ChatMessage> older) {
+    var shown = new HashSet<Long>();
+    for (var l : lines) if (l.id() != MessageLine.NO_ID) shown.add(l.id());
+    var add = new ArrayList<MessageLine>(older.size());
+    for (var m : older) if (m.id() == null || !shown.contains(m.id())) add.add(compact(m));
+    lines.addAll(0, add);
+    return add.size();
+  }
+
+  /** Cuts the top down to capacity, e.g. once the user scrolled back to the bottom. */
+  public void trim() {
+    int excess = lines.size() - capacity;
+    if (excess <= 0) return;
+    lines.remove(0, excess);
+    evicted = true;
+  }
+
+  private void bound(boolean following) {
+    if (following || lines.size() > 2 * capacity) trim();
+  }
+
+  /**
+   * True once after lines were evicted: the history pager has to restart before
+   * {@link #oldestEpochMs()} to fill the gap.
+   */
+  public boolean takeEvicted() {
+    boolean e = evicted;
+    evicted = false;
+    return e;
+  }
+
+  public long oldestEpochMs() { return lines.isEmpty() ? Long.MAX_VALUE : lines.get(0).sentAtMs(); }
+
+  private String intern(String sender) {
+    if (sender == null) return null;
+    var s = senders.putIfAbsent(sender, sender);
+    return s != null ? s : sender;
+  }
+}
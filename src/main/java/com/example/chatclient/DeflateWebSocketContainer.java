@@ -0,0 +1,107 @@
+package com.example.chatclient;
+
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.Extension;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+import org.glassfish.tyrus.core.extension.ExtendedExtension;
+import org.glassfish.tyrus.core.frame.Frame;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tyrus container that offers permessage-deflate on every connection.
+ *
+ * Spring's {@code StandardWebSocketClient} only forwards extension <em>names</em>, which Tyrus
+ * negotiates but cannot process; the config is rebuilt here with a real
+ * {@link PerMessageDeflateExtension} instance. If the server declines, frames flow uncompressed.
+ * Wire and payload bytes of data frames are counted so the savings show up in {@link Metrics}.
+ */
+class DeflateWebSocketContainer implements WebSocketContainer {
+  private static final Metrics.Meter IN_WIRE = Metrics.meter("ws bytesIn wire");
+  private static final Metrics.Meter IN_PAYLOAD = Metrics.meter("ws bytesIn payload");
+  private static final Metrics.Meter OUT_WIRE = Metrics.meter("ws bytesOut wire");
+  private static final Metrics.Meter OUT_PAYLOAD = Metrics.meter("ws bytesOut payload");
+
+  private final WebSocketContainer delegate;
+
+  DeflateWebSocketContainer(WebSocketContainer delegate) { this.delegate = delegate; }
+
+  @Override public Session connectToServer(Endpoint endpoint, ClientEndpointConfig config, URI path)
+      throws DeploymentException, IOException {
+    var extensions = new ArrayList<Extension>();
+    extensions.add(new Counting(new PerMessageDeflateExtension()));
+    for (var e : config.getExtensions()) if (!e.getName().equals("permessage-deflate")) extensions.add(e);
+    var rebuilt = ClientEndpointConfig.Builder.create()
+        .configurator(config.getConfigurator())
+        .preferredSubprotocols(config.getPreferredSubprotocols())
+        .extensions(extensions)
+        .encoders(config.getEncoders())
+        .decoders(config.getDecoders())
+        .build();
+    rebuilt.getUserProperties().putAll(config.getUserProperties());
+    return delegate.connectToServer(endpoint, rebuilt, path);
+  }
+
+  /** Counts data frames on both sides of the wrapped extension. */
+  private record Counting(ExtendedExtension delegate) implements ExtendedExtension {
+    @Override public Frame processIncoming(ExtensionContext ctx, Frame frame) {
+      if (frame.isControlFrame()) return delegate.processIncoming(ctx, frame);
+      IN_WIRE.mark(frame.getPayloadLength());
+      var out = delegate.processIncoming(ctx, frame);
+      IN_PAYLOAD.mark(out.getPayloadLength());
+      return out;
+    }
+
+    @Override public Frame processOutgoing(ExtensionContext ctx, Frame frame) {
+      if (frame.isControlFrame()) return delegate.processOutgoing(ctx, frame);
+      OUT_PAYLOAD.mark(frame.getPayloadLength());
+      var out = delegate.processOutgoing(ctx, frame);
+      OUT_WIRE.mark(out.getPayloadLength());
+      return out;
+    }
+
+    @Override public List<Parameter> onExtensionNegotiation(ExtensionContext ctx, List<Parameter> requested) {
+      return delegate.onExtensionNegotiation(ctx, requested);
+    }
+
+    @Override public void onHandshakeResponse(ExtensionContext ctx, List<Parameter> response) {
+      delegate.onHandshakeResponse(ctx, response);
+    }
+
+    @Override public void destroy(ExtensionContext ctx) { delegate.destroy(ctx); }
+
+    @Override public String getName() { return delegate.getName(); }
+
+    @Override public List<Parameter> getParameters() { return delegate.getParameters(); }
+  }
+
+  // --- plain delegation ---
+
+  @Override public long getDefaultAsyncSendTimeout() { return delegate.getDefaultAsyncSendTimeout(); }
+  @Override public void setAsyncSendTimeout(long timeout) { delegate.setAsyncSendTimeout(timeout); }
+  @Override public Session connectToServer(Object endpoint, URI path) throws DeploymentException, IOException {
+    return delegate.connectToServer(endpoint, path);
+  }
+  @Override public Session connectToServer(Class<?> endpoint, URI path) throws DeploymentException, IOException {
+    return delegate.connectToServer(endpoint, path);
+  }
+  @Override public Session connectToServer(Class<? extends Endpoint> endpoint, ClientEndpointConfig config, URI path)
+      throws DeploymentException, IOException {
+    return delegate.connectToServer(endpoint, config, path);
+  }
+  @Override public long getDefaultMaxSessionIdleTimeout() { return delegate.getDefaultMaxSessionIdleTimeout(); }
+  @Override public void setDefaultMaxSessionIdleTimeout(long timeout) { delegate.setDefaultMaxSessionIdleTimeout(timeout); }
+  @Override public int getDefaultMaxBinaryMessageBufferSize() { return delegate.getDefaultMaxBinaryMessageBufferSize(); }
+  @Override public void setDefaultMaxBinaryMessageBufferSize(int max) { delegate.setDefaultMaxBinaryMessageBufferSize(max); }
+  @Override public int getDefaultMaxTextMessageBufferSize() { return delegate.getDefaultMaxTextMessageBufferSize(); }
+  @Override public void setDefaultMaxTextMessageBufferSize(int max) { delegate.setDefaultMaxTextMessageBufferSize(max); }
+  @Override public Set<Extension> getInstalledExtensions() { return delegate.getInstalledExtensions(); }
+}
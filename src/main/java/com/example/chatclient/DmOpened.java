@@ -0,0 +1,4 @@
+package com.example.chatclient;
+
+/** Response of {@code POST /api/dm/open}. */
+public record DmOpened(String conversationId) {}
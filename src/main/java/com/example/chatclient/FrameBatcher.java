@@ -0,0 +1,98 @@
+package com.example.chatclient;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Collects items from any thread and hands them to the FX thread once per pulse,
+ * at most {@code maxPerPulse} at a time, instead of one {@code Platform.runLater} per item.
+ * The pulse timer runs only while items are waiting: a running AnimationTimer keeps JavaFX
+ * pulsing every frame, which an idle window should not.
+ */
+public class FrameBatcher<T> {
+  public static final int DEFAULT_MAX_PER_PULSE = Integer.getInteger("uiBatchCap", 500);
+
+  private record Stamped<T>(T item, long at) {}
+
+  private final ConcurrentLinkedQueue<Stamped<T>> queue = new ConcurrentLinkedQueue<>();
+  private final int maxPerPulse;
+  private final Consumer<List<T>> apply;
+  private volatile Metrics.Histogram latency;
+  private final long[] stamps; // FX thread only
+  private volatile boolean enabled;
+  private final AtomicBoolean armed = new AtomicBoolean(); // timer started or about to be
+  private final AnimationTimer timer = new AnimationTimer() {
+    @Override public void handle(long now) { drain(); }
+  };
+
+  public FrameBatcher(int maxPerPulse, Consumer<List<T>> apply) {
+    this.maxPerPulse = maxPerPulse;
+    this.apply = apply;
+    this.stamps = new long[maxPerPulse];
+  }
+
+  public FrameBatcher(Consumer<List<T>> apply) { this(DEFAULT_MAX_PER_PULSE, apply); }
+
+  /** Safe from any thread. */
+  public void offer(T item) {
+    queue.offer(new Stamped<>(item, System.nanoTime()));
+    if (enabled && armed.compareAndSet(false, true)) Platform.runLater(this::arm);
+  }
+
+  /** Records offer-to-applied time per item into {@code h}. */
+  public FrameBatcher<T> timed(Metrics.Histogram h) {
+    this.latency = h;
+    return this;
+  }
+
+  /** FX thread. Items are applied from now on; the timer itself starts with the first one. */
+  public void start() {
+    enabled = true;
+    if (!queue.isEmpty() && armed.compareAndSet(false, true)) arm();
+  }
+
+  /** FX thread. */
+  public void stop() {
+    enabled = false;
+    timer.stop();
+    armed.set(false);
+  }
+
+  private void arm() {
+    if (enabled) timer.start(); else armed.set(false);
+  }
+
+  /** Drops anything not yet applied, e.g. when the view switches to another conversation. */
+  public void clear() { queue.clear(); }
+
+  private void drain() {
+    if (queue.isEmpty()) { idle(); return; }
+    var batch = new ArrayList<T>(Math.min(maxPerPulse, 64));
+    Stamped<T> s;
+    while (batch.size() < maxPerPulse && (s = queue.poll()) != null) {
+      stamps[batch.size()] = s.at();
+      batch.add(s.item());
+    }
+    apply.accept(batch);
+    var h = latency;
+    if (h != null) {
+      long now = System.nanoTime();
+      for (int i = 0; i < batch.size(); i++) h.record(now - stamps[i]);
+    }
+    if (queue.isEmpty()) idle();
+  }
+
+  /** FX thread: stops pulsing until the next offer. */
+  private void idle() {
+    timer.stop();
+    armed.set(false);
+    // an offer between the isEmpty check and disarming saw the timer armed and left it to us
+    if (!queue.isEmpty() && armed.compareAndSet(false, true)) timer.start();
+  }
+}
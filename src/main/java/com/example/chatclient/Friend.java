@@ -0,0 +1,4 @@
+package com.example.chatclient;
+
+/** Row of {@code GET /api/friends}. */
+public record Friend(String username, String displayName) {}
@@ -0,0 +1,9 @@
+package com.example.chatclient;
+
+/**
+ * Frame on {@code /user/queue/friends}: a friend request was created, accepted or declined.
+ * Both parties get it; each applies it to whichever of its lists it concerns.
+ */
+public record FriendEvent(Type type, FriendRequest request) {
+  public enum Type { REQUEST_CREATED, REQUEST_ACCEPTED, REQUEST_DECLINED }
+}
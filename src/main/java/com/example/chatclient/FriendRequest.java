@@ -0,0 +1,14 @@
+package com.example.chatclient;
+
+/**
+ * Row of {@code GET /api/friends/requests/incoming|outgoing}: incoming rows carry {@code from},
+ * outgoing rows carry {@code to}. {@link FriendEvent}s carry both, with display names.
+ */
+public record FriendRequest(String id, UserRef from, UserRef to, String createdAt) {
+  public record UserRef(String username, String displayName) {
+    public UserRef(String username) { this(username, null); }
+  }
+
+  public String fromUsername() { return from != null ? from.username() : null; }
+  public String toUsername() { return to != null ? to.username() : null; }
+}
@@ -0,0 +1,133 @@
+package com.example.chatclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates a {@code Content-Encoding: gzip} body on the fly and hands plain bytes to
+ * {@code downstream}, so any body handler (string, stream) works on compressed responses
+ * without buffering the whole thing. Single member only, which is what servers send.
+ */
+class GzipBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+  private static final int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2;
+
+  private final HttpResponse.BodySubscriber<T> downstream;
+  private final Inflater inflater = new Inflater(true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] chunk = new byte[16 * 1024];
+  private ByteArrayOutputStream header = new ByteArrayOutputStream(16);
+  private final ByteArrayOutputStream trailer = new ByteArrayOutputStream(8);
+  private Flow.Subscription subscription;
+  private boolean failed;
+
+  GzipBodySubscriber(HttpResponse.BodySubscriber<T> downstream) { this.downstream = downstream; }
+
+  @Override public CompletionStage<T> getBody() { return downstream.getBody(); }
+
+  @Override public void onSubscribe(Flow.Subscription s) {
+    this.subscription = s;
+    downstream.onSubscribe(s);
+  }
+
+  @Override public void onNext(List<ByteBuffer> items) {
+    if (failed) return;
+    var out = new ArrayList<ByteBuffer>();
+    try {
+      for (var b : items) {
+        var in = new byte[b.remaining()];
+        b.get(in);
+        feed(in, out);
+      }
+    } catch (IOException | DataFormatException e) {
+      failed = true;
+      subscription.cancel();
+      inflater.end();
+      downstream.onError(e);
+      return;
+    }
+    // downstream asked for one item per request; if this one inflated to nothing, fetch the next
+    if (out.isEmpty()) subscription.request(1);
+    else downstream.onNext(out);
+  }
+
+  private void feed(byte[] in, List<ByteBuffer> out) throws IOException, DataFormatException {
+    int off = 0;
+    if (header != null) {
+      header.write(in, 0, in.length);
+      var h = header.toByteArray();
+      int len = headerLength(h);
+      if (len < 0) return;
+      header = null;
+      in = h;
+      off = len;
+    }
+    if (!inflater.finished()) {
+      inflater.setInput(in, off, in.length - off);
+      int n;
+      while ((n = inflater.inflate(chunk)) > 0) {
+        crc.update(chunk, 0, n);
+        out.add(ByteBuffer.wrap(Arrays.copyOf(chunk, n)));
+      }
+      if (!inflater.finished()) return;
+      off = in.length - inflater.getRemaining();
+    }
+    trailer.write(in, off, in.length - off);
+  }
+
+  /** Length of a complete gzip header at the start of {@code h}, or -1 if more bytes are needed. */
+  private static int headerLength(byte[] h) throws ZipException {
+    if (h.length < 10) return -1;
+    if ((h[0] & 0xFF) != 0x1F || (h[1] & 0xFF) != 0x8B || h[2] != 8) throw new ZipException("not gzip");
+    int flags = h[3] & 0xFF, pos = 10;
+    if ((flags & FEXTRA) != 0) {
+      if (h.length < pos + 2) return -1;
+      pos += 2 + ((h[pos] & 0xFF) | (h[pos + 1] & 0xFF) << 8);
+    }
+    for (int f : new int[] {FNAME, FCOMMENT}) {
+      if ((flags & f) == 0) continue;
+      while (pos < h.length && h[pos] != 0) pos++;
+      if (pos >= h.length) return -1;
+      pos++;
+    }
+    if ((flags & FHCRC) != 0) pos += 2;
+    return pos <= h.length ? pos : -1;
+  }
+
+  @Override public void onError(Throwable t) {
+    inflater.end();
+    if (!failed) downstream.onError(t);
+  }
+
+  @Override public void onComplete() {
+    if (failed) return;
+    if (header != null && header.size() == 0) {
+      // no bytes at all: an empty body some servers label gzip anyway, not a cut-off stream
+      inflater.end();
+      downstream.onComplete();
+      return;
+    }
+    var t = trailer.toByteArray();
+    boolean finished = inflater.finished();
+    boolean ok = finished && t.length >= 8
+        && (int) crc.getValue() == le32(t, 0) && (int) inflater.getBytesWritten() == le32(t, 4);
+    inflater.end();
+    if (ok) downstream.onComplete();
+    else downstream.onError(finished ? new ZipException("gzip trailer mismatch") : new EOFException("truncated gzip body"));
+  }
+
+  private static int le32(byte[] b, int i) {
+    return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+  }
+}
@@ -0,0 +1,34 @@
+package com.example.chatclient;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Formatted "sender  ·  time" per message, shared by all cells of one list. LRU-bounded. */
+public class HeaderCache {
+  static final DateTimeFormatter TS =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+  private final Map<MessageLine, String> map;
+
+  public HeaderCache(int capacity) {
+    this.map = new LinkedHashMap<>(256, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<MessageLine, String> e) { return size() > capacity; }
+    };
+  }
+
+  public String get(MessageLine m) {
+    var h = map.get(m);
+    if (h == null) {
+      h = format(m);
+      map.put(m, h);
+    }
+    return h;
+  }
+
+  static String format(MessageLine m) {
+    return (m.sender() != null ? m.sender() : "system") + "  ·  " + TS.format(Instant.ofEpochMilli(m.sentAtMs()));
+  }
+}
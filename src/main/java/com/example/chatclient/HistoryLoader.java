@@ -0,0 +1,87 @@
+package com.example.chatclient;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Pages one conversation's history newest-first: the newest page is served as soon as
+ * possible, older pages come from the local store and then from the server on demand.
+ * Only the page handed out is read from the store; the loader itself keeps just a cursor.
+ */
+public class HistoryLoader {
+  public static final int PAGE_SIZE = Integer.getInteger("historyPageSize", 100);
+
+  private final ApiClient api;
+  private final HistoryStore store;
+  private final String conversationId;
+
+  private HistoryStore.Cursor cursor; // the next local page ends before this
+  private boolean localDone = true;
+  private Long serverCursor;
+  private boolean exhausted;
+
+  public HistoryLoader(ApiClient api, HistoryStore store, String conversationId) {
+    this.api = api; this.store = store; this.conversationId = conversationId;
+  }
+
+  /** Newest page, catching the local store up with the server first. */
+  public synchronized List<ChatMessage> newest() throws Exception {
+    if (store.syncedThrough(conversationId) == 0) {
+      // never synced: start from the newest page, unless something stored is older than it
+      // (a file from before the sync mark), which would leave a hole behind the page
+      var page = api.loadPage(conversationId, null, PAGE_SIZE);
+      var msgs = page.messages();
+      var oldest = store.oldest(conversationId);
+      if (oldest == null || page.olderCursor() == null
+          || !msgs.isEmpty() && !oldest.isBefore(msgs.get(0).sentAt())) {
+        return serverPage(page);
+      }
+    }
+    store.sync(api, conversationId);
+    // a mark without records (file deleted or cut to nothing) and an empty delta: start from the server
+    if (store.size(conversationId) == 0) return serverPage(api.loadPage(conversationId, null, PAGE_SIZE));
+    cursor = null;
+    localDone = false;
+    serverCursor = store.oldestId(conversationId);
+    return nextLocal();
+  }
+
+  /** Stores the newest page from the server and pages on from its cursor. */
+  private List<ChatMessage> serverPage(ApiClient.HistoryPage page) throws IOException {
+    store.appendSynced(conversationId, page.messages());
+    serverCursor = page.olderCursor();
+    exhausted = serverCursor == null;
+    if (!page.messages().isEmpty()) cursor = HistoryStore.Cursor.of(page.messages().get(0));
+    localDone = true;
+    return page.messages();
+  }
+
+  /**
+   * Makes the next {@link #older()} page end at {@code epochMs} (inclusive) again, after the
+   * window evicted messages that had already been handed out.
+   */
+  public synchronized void rewind(long epochMs) throws IOException {
+    cursor = HistoryStore.Cursor.through(epochMs);
+    localDone = false;
+    var oldest = store.oldestId(conversationId);
+    if (oldest != null) { serverCursor = oldest; exhausted = false; }
+  }
+
+  /** Next older page, or an empty list once the start of the conversation is reached. */
+  public synchronized List<ChatMessage> older() throws Exception {
+    if (!localDone) {
+      var page = nextLocal();
+      if (!page.isEmpty()) return page;
+    }
+    if (exhausted || serverCursor == null) return List.of();
+    var page = api.loadPage(conversationId, serverCursor, PAGE_SIZE);
+    return serverPage(page);
+  }
+
+  private List<ChatMessage> nextLocal() throws IOException {
+    var page = store.before(conversationId, cursor, PAGE_SIZE);
+    if (page.isEmpty()) localDone = true;
+    else cursor = HistoryStore.Cursor.of(page.get(0));
+    return page;
+  }
+}
@@ -0,0 +1,503 @@
+package com.example.chatclient;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only on-disk history, one file per conversation.
+ *
+ * Record layout: [int length][long id][long epochSecond][int nano][sender][content],
+ * strings written as [int length][utf-8 bytes]. A torn tail left by a crash is cut off on read.
+ * Next to it, [conversation].sync holds the sentAt (ms) up to which the file is known to match the
+ * server; live frames can land ahead of it, so it is not simply the newest stored message.
+ *
+ * A file is scanned once per process, record headers only, into a table of (sentAt, id, offset)
+ * in primitive arrays ordered by sentAt. Deduplication looks ids up there, and a page is read
+ * record by record at the offsets of its rows, so no conversation is ever held in memory whole.
+ *
+ * Live frames go through {@link #appendLater}: a single writer thread drains them in batches per
+ * conversation into files it keeps open (the last {@code -DhistoryOpenFiles}), so the STOMP
+ * thread never waits on the disk. {@link #close} writes out what is still queued.
+ */
+public class HistoryStore implements AutoCloseable {
+  private static final long NO_ID = Long.MIN_VALUE;
+  private static final int READ_CHUNK = 64 * 1024;
+  private static final int INDEX_BATCH = 1024;
+  private static final long MS = 1_000_000;
+  private static final int OPEN_FILES = Integer.getInteger("historyOpenFiles", 16);
+
+  private final Path dir;
+  private final Map<String, Table> tables = new HashMap<>();
+  private final Map<String, FileChannel> channels = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, FileChannel> eldest) {
+      if (size() <= OPEN_FILES) return false;
+      try { eldest.getValue().close(); } catch (IOException ignored) { }
+      return true;
+    }
+  };
+  private final ConcurrentLinkedQueue<Pending> queued = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("history-writer").factory());
+  private volatile MessageIndex index;
+
+  private record Pending(String conversationId, ChatMessage message) {}
+
+  /** Where a page ends: messages strictly older than (sentAt in epoch nanos, id). */
+  public record Cursor(long at, long id) {
+    public static Cursor of(ChatMessage m) { return new Cursor(nanos(m.sentAt()), m.id() != null ? m.id() : NO_ID); }
+
+    /** Everything up to and including millisecond {@code epochMs}. */
+    public static Cursor through(long epochMs) { return new Cursor((epochMs + 1) * MS, NO_ID); }
+  }
+
+  /** Stored records of one conversation, sorted by (sentAt, id). */
+  private static final class Table {
+    long syncedMs; // 0: never synced
+    long[] at = new long[64]; // epoch nanos
+    long[] id = new long[64];
+    long[] pos = new long[64];
+    int n;
+
+    void add(long a, long i, long p) {
+      if (n == at.length) {
+        at = Arrays.copyOf(at, n * 2); id = Arrays.copyOf(id, n * 2); pos = Arrays.copyOf(pos, n * 2);
+      }
+      at[n] = a; id[n] = i; pos[n] = p;
+      n++;
+    }
+
+    /** First row not older than (a, i). */
+    int lowerBound(long a, long i) {
+      int lo = 0, hi = n;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (at[mid] < a || at[mid] == a && id[mid] < i) lo = mid + 1; else hi = mid;
+      }
+      return lo;
+    }
+
+    /** Stored under this id within a millisecond of {@code a}: a live copy may round sentAt. */
+    boolean contains(long i, long a) {
+      for (int r = lowerBound(a - MS, Long.MIN_VALUE); r < n && at[r] <= a + MS; r++) if (id[r] == i) return true;
+      return false;
+    }
+
+    /** Merge sort of rows [lo, hi); runs already in order (the common case) cost one compare. */
+    void sort(int lo, int hi) {
+      if (hi - lo < 2) return;
+      int mid = (lo + hi) >>> 1;
+      sort(lo, mid);
+      sort(mid, hi);
+      merge(lo, mid, hi);
+    }
+
+    void merge(int lo, int mid, int hi) {
+      if (lo == mid || mid == hi || at[mid - 1] < at[mid] || at[mid - 1] == at[mid] && id[mid - 1] <= id[mid]) return;
+      var a = Arrays.copyOfRange(at, lo, mid);
+      var b = Arrays.copyOfRange(id, lo, mid);
+      var c = Arrays.copyOfRange(pos, lo, mid);
+      int i = 0, j = mid, k = lo;
+      while (i < a.length && j < hi) {
+        if (at[j] < a[i] || at[j] == a[i] && id[j] < b[i]) { at[k] = at[j]; id[k] = id[j]; pos[k] = pos[j]; j++; }
+        else { at[k] = a[i]; id[k] = b[i]; pos[k] = c[i]; i++; }
+        k++;
+      }
+      for (; i < a.length; i++, k++) { at[k] = a[i]; id[k] = b[i]; pos[k] = c[i]; }
+    }
+  }
+
+  public HistoryStore(Path dir) { this.dir = dir; }
+
+  /**
+   * Everything appended to this store is also fed to {@code index}, and so is whatever part of a
+   * file the index has not seen yet when that file is first scanned.
+   */
+  public void indexInto(MessageIndex index) { this.index = index; }
+
+  public static Path defaultDir(String username) {
+    var base = System.getProperty("historyDir",
+        Path.of(System.getProperty("user.home"), ".chat-client", "history").toString());
+    return Path.of(base, username);
+  }
+
+  /** One delta request for everything newer than the synced-through mark; returns what was new. */
+  public List<ChatMessage> sync(ApiClient api, String conversationId) throws Exception {
+    long after = syncedThrough(conversationId);
+    // step back 1ms: the server filters by millisecond, stored sentAt keeps micros
+    var delta = after == 0 ? api.loadMessages(conversationId) : api.loadMessagesAfter(conversationId, after - 1);
+    return appendSynced(conversationId, delta);
+  }
+
+  /**
+   * Up to {@code limit} stored messages just older than {@code cursor} (null: the newest ones),
+   * oldest first. Only these records are read.
+   */
+  public synchronized List<ChatMessage> before(String conversationId, Cursor cursor, int limit) throws IOException {
+    var t = table(conversationId);
+    int end = cursor == null ? t.n : t.lowerBound(cursor.at(), cursor.id());
+    int from = Math.max(0, end - limit);
+    var out = new ArrayList<ChatMessage>(end - from);
+    if (from == end) return out;
+    var conv = UUID.fromString(conversationId);
+    var ch = channel(conversationId);
+    for (int r = from; r < end; r++) {
+      var m = readAt(ch, t.pos[r], conv);
+      if (m != null) out.add(m);
+    }
+    return out;
+  }
+
+  public synchronized int size(String conversationId) throws IOException {
+    return table(conversationId).n;
+  }
+
+  /** Id of the oldest stored message, where server paging continues; null if none is stored. */
+  public synchronized Long oldestId(String conversationId) throws IOException {
+    var t = table(conversationId);
+    return t.n == 0 || t.id[0] == NO_ID ? null : t.id[0];
+  }
+
+  /** sentAt of the oldest stored message, or null if none is stored. */
+  public synchronized Instant oldest(String conversationId) throws IOException {
+    var t = table(conversationId);
+    return t.n == 0 ? null : Instant.ofEpochSecond(Math.floorDiv(t.at[0], 1_000_000_000L), Math.floorMod(t.at[0], 1_000_000_000L));
+  }
+
+  /** Appends messages not yet stored (by id) and returns the ones actually written. */
+  public synchronized List<ChatMessage> append(String conversationId, List<ChatMessage> messages) throws IOException {
+    var t = table(conversationId);
+    var added = new ArrayList<ChatMessage>();
+    var batch = new HashSet<Long>();
+    for (var m : messages) {
+      if (m.sentAt() == null || m.id() == null || !batch.add(m.id())) continue;
+      if (!t.contains(m.id(), nanos(m.sentAt()))) added.add(m);
+    }
+    if (added.isEmpty()) return added;
+
+    var ch = channel(conversationId);
+    var offsets = new long[added.size()];
+    long start = ch.size(), pos = start;
+    var bytes = new ByteArrayOutputStream(added.size() * 128);
+    try (var out = new DataOutputStream(bytes)) {
+      for (int i = 0; i < added.size(); i++) {
+        var m = added.get(i);
+        var sender = (m.sender() != null ? m.sender() : "").getBytes(StandardCharsets.UTF_8);
+        var content = (m.content() != null ? m.content() : "").getBytes(StandardCharsets.UTF_8);
+        int len = 8 + 8 + 4 + 4 + sender.length + 4 + content.length;
+        offsets[i] = pos;
+        pos += 4 + len;
+        out.writeInt(len);
+        out.writeLong(m.id());
+        out.writeLong(m.sentAt().getEpochSecond());
+        out.writeInt(m.sentAt().getNano());
+        out.writeInt(sender.length); out.write(sender);
+        out.writeInt(content.length); out.write(content);
+      }
+    }
+    var buf = ByteBuffer.wrap(bytes.toByteArray());
+    while (buf.hasRemaining()) ch.write(buf, start + buf.position());
+    int from = t.n;
+    for (int i = 0; i < added.size(); i++) t.add(nanos(added.get(i).sentAt()), added.get(i).id(), offsets[i]);
+    // live frames land after everything, scroll-back pages before: one merge either way
+    t.sort(from, t.n);
+    t.merge(0, from, t.n);
+    var idx = index;
+    if (idx != null) idx.addAll(added, offsets);
+    return added;
+  }
+
+  public void append(String conversationId, ChatMessage message) throws IOException {
+    append(conversationId, List.of(message));
+  }
+
+  /**
+   * Queues a live frame for the writer thread and returns at once; frames that arrive while it
+   * writes go out together in the next batch. A write that fails loses the frame, which the next
+   * sync or gap-fill fetches again.
+   */
+  public void appendLater(String conversationId, ChatMessage message) {
+    queued.add(new Pending(conversationId, message));
+    if (draining.compareAndSet(false, true)) {
+      try {
+        writer.execute(this::drain);
+      } catch (java.util.concurrent.RejectedExecutionException closed) {
+        draining.set(false);
+      }
+    }
+  }
+
+  private void drain() {
+    do {
+      var batches = new LinkedHashMap<String, List<ChatMessage>>();
+      for (Pending p; (p = queued.poll()) != null; ) {
+        batches.computeIfAbsent(p.conversationId(), k -> new ArrayList<>()).add(p.message());
+      }
+      for (var b : batches.entrySet()) {
+        try { append(b.getKey(), b.getValue()); } catch (IOException | RuntimeException ignored) { }
+      }
+      draining.set(false);
+      // a frame queued after the last poll but before the flag dropped found it still set
+    } while (!queued.isEmpty() && draining.compareAndSet(false, true));
+  }
+
+  /** Writes out the queued frames and closes the open files. */
+  @Override public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      for (var ch : channels.values()) {
+        try { ch.close(); } catch (IOException ignored) { }
+      }
+      channels.clear();
+    }
+  }
+
+  /**
+   * {@link #append} for history loaded from the server (a delta or a page), which also moves the
+   * synced-through mark up to it. Live frames must not: one arriving before the first sync would
+   * otherwise hide everything between the stored messages and itself.
+   */
+  public synchronized List<ChatMessage> appendSynced(String conversationId, List<ChatMessage> messages) throws IOException {
+    var added = append(conversationId, messages);
+    var t = table(conversationId);
+    long mark = t.syncedMs;
+    for (var m : messages) if (m.sentAt() != null) mark = Math.max(mark, m.sentAt().toEpochMilli());
+    if (mark != t.syncedMs) {
+      Files.createDirectories(dir);
+      Files.writeString(syncFile(conversationId), Long.toString(mark));
+      t.syncedMs = mark;
+    }
+    return added;
+  }
+
+  /** sentAt (ms) up to which the stored history matches the server, or 0 if it never synced. */
+  public synchronized long syncedThrough(String conversationId) {
+    var t = tables.get(conversationId);
+    return t != null ? t.syncedMs : readSyncMark(conversationId);
+  }
+
+  /**
+   * The stored messages behind search hits of one conversation, read record by record at the
+   * offsets the index kept. A hit whose record is gone or holds another id is skipped.
+   */
+  public synchronized List<ChatMessage> find(String conversationId, List<MessageIndex.Hit> hits) throws IOException {
+    var out = new ArrayList<ChatMessage>();
+    var file = file(conversationId);
+    if (!Files.exists(file)) return out;
+    var conv = UUID.fromString(conversationId);
+    var ch = channel(conversationId);
+    for (var h : hits) {
+      var m = readAt(ch, h.offset(), conv);
+      if (m != null && m.id() != null && m.id() == h.messageId()) out.add(m);
+    }
+    return out;
+  }
+
+  /** The conversation file, opened (and created) once and kept open while it is in use. */
+  private FileChannel channel(String conversationId) throws IOException {
+    var ch = channels.get(conversationId);
+    if (ch != null && ch.isOpen()) return ch;
+    Files.createDirectories(dir);
+    ch = FileChannel.open(file(conversationId), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    channels.put(conversationId, ch);
+    return ch;
+  }
+
+  /**
+   * The record table of a conversation, scanned from its file on first use. Records the index
+   * has not seen (past {@link MessageIndex#indexedEnd}) are decoded and fed to it on the way.
+   */
+  private Table table(String conversationId) throws IOException {
+    var t = tables.get(conversationId);
+    if (t != null) return t;
+    t = new Table();
+    t.syncedMs = readSyncMark(conversationId);
+    var file = file(conversationId);
+    var conv = UUID.fromString(conversationId);
+    var idx = index;
+    long unindexed = idx != null ? idx.indexedEnd(conv) : Long.MAX_VALUE;
+    var batch = new ArrayList<ChatMessage>();
+    var offsets = new long[INDEX_BATCH];
+    if (Files.exists(file)) {
+      // streamed through a small buffer, not mapped (a file with a live mapping can't be truncated
+      // on Windows) nor read whole (offsets are longs, files may pass 2 GB)
+      try (var ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), READ_CHUNK));
+        var buf = new byte[256];
+        long size = ch.size(), good = 0;
+        while (size - good >= 4) {
+          int len = in.readInt();
+          if (len < 28 || len > size - good - 4) break;
+          if (len > buf.length) buf = new byte[Math.max(len, buf.length * 2)];
+          in.readFully(buf, 0, len);
+          var rec = ByteBuffer.wrap(buf, 0, len);
+          long id = rec.getLong();
+          long at = rec.getLong() * 1_000_000_000L + rec.getInt();
+          int sender = rec.getInt();
+          if (sender < 0 || sender > rec.remaining() - 4) break; // strings overrun the record: torn
+          rec.position(rec.position() + sender);
+          int content = rec.getInt();
+          if (content < 0 || content > rec.remaining()) break;
+          t.add(at, id, good);
+          if (good >= unindexed) {
+            offsets[batch.size()] = good;
+            batch.add(decode(ByteBuffer.wrap(buf, 0, len), conv));
+            if (batch.size() == INDEX_BATCH) { idx.addAll(batch, offsets); batch.clear(); }
+          }
+          good += 4 + len;
+        }
+        if (good < size) ch.truncate(good);
+      }
+    }
+    if (!batch.isEmpty()) idx.addAll(batch, offsets);
+    // pages fetched on scroll-back land after newer records
+    t.sort(0, t.n);
+    tables.put(conversationId, t);
+    return t;
+  }
+
+  /**
+   * Stored messages sent before {@code beforeMs} that match {@code query} by
+   * {@link MessageIndex#matches}, newest first and at most {@code limit}: history the index
+   * dropped past its cap, read straight from the files. Streams every file once, so it runs on a
+   * worker; interrupting it closes the file being read and ends the search.
+   */
+  public List<ChatMessage> search(String query, long beforeMs, int limit) throws IOException {
+    var q = MessageIndex.tokenize(query);
+    if (q.isEmpty() || beforeMs <= 0 || limit <= 0 || !Files.isDirectory(dir)) return List.of();
+    var newest = new PriorityQueue<ChatMessage>(Comparator.comparing(ChatMessage::sentAt));
+    try (var files = Files.newDirectoryStream(dir, "*.hist")) {
+      for (var file : files) {
+        var name = file.getFileName().toString();
+        UUID conv;
+        try {
+          conv = UUID.fromString(name.substring(0, name.length() - ".hist".length()));
+        } catch (IllegalArgumentException notOurs) {
+          continue;
+        }
+        // no lock: records are only ever appended, and a half-written one fails the length checks
+        try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+          var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), READ_CHUNK));
+          var buf = new byte[256];
+          long size = ch.size(), good = 0;
+          while (size - good >= 4) {
+            int len = in.readInt();
+            if (len < 28 || len > size - good - 4) break;
+            if (len > buf.length) buf = new byte[Math.max(len, buf.length * 2)];
+            in.readFully(buf, 0, len);
+            good += 4 + len;
+            var rec = ByteBuffer.wrap(buf, 0, len);
+            if (rec.getLong(8) * 1000 + rec.getInt(16) / 1_000_000 >= beforeMs) continue;
+            ChatMessage m;
+            try {
+              m = decode(rec, conv);
+            } catch (RuntimeException torn) {
+              break;
+            }
+            if (!MessageIndex.matches(q, m)) continue;
+            newest.add(m);
+            if (newest.size() > limit) newest.poll();
+          }
+        }
+      }
+    }
+    var out = new ArrayList<>(newest);
+    out.sort(Comparator.comparing(ChatMessage::sentAt).reversed());
+    return out;
+  }
+
+  /** Conversation that was open when the user last used the client, or null. */
+  public String lastOpened() {
+    try {
+      var id = Files.readString(dir.resolve("last-open")).trim();
+      return UUID.fromString(id).toString();
+    } catch (IOException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  public void setLastOpened(String conversationId) throws IOException {
+    Files.createDirectories(dir);
+    Files.writeString(dir.resolve("last-open"), conversationId);
+  }
+
+  private Path file(String conversationId) {
+    return dir.resolve(UUID.fromString(conversationId) + ".hist");
+  }
+
+  private Path syncFile(String conversationId) {
+    return dir.resolve(UUID.fromString(conversationId) + ".sync");
+  }
+
+  private long readSyncMark(String conversationId) {
+    try {
+      return Long.parseLong(Files.readString(syncFile(conversationId)).trim());
+    } catch (IOException | NumberFormatException e) {
+      return 0; // files from before the mark existed sync in full once
+    }
+  }
+
+  /** The record starting at {@code pos}, or null if there is none (any more). */
+  private static ChatMessage readAt(FileChannel ch, long pos, UUID conv) throws IOException {
+    if (pos < 0 || pos + 4 > ch.size()) return null;
+    var len = ByteBuffer.allocate(4);
+    if (ch.read(len, pos) < 4) return null;
+    int n = len.flip().getInt();
+    if (n < 28 || pos + 4 + n > ch.size()) return null;
+    var rec = ByteBuffer.allocate(n);
+    while (rec.hasRemaining() && ch.read(rec, pos + 4 + rec.position()) > 0) { }
+    try {
+      return decode(rec.flip(), conv);
+    } catch (RuntimeException torn) {
+      return null; // not a record boundary any more
+    }
+  }
+
+  private static long nanos(Instant t) { return t.getEpochSecond() * 1_000_000_000L + t.getNano(); }
+
+  private static ChatMessage decode(ByteBuffer rec, UUID conv) {
+    long id = rec.getLong();
+    var sentAt = Instant.ofEpochSecond(rec.getLong(), rec.getInt());
+    var sender = string(rec);
+    var content = string(rec);
+    return new ChatMessage(id == NO_ID ? null : id, conv, sender, content, sentAt);
+  }
+
+  private static String string(ByteBuffer rec) {
+    int len = rec.getInt();
+    if (len < 0 || len > rec.remaining()) throw new java.nio.BufferUnderflowException();
+    var bytes = new byte[len];
+    rec.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
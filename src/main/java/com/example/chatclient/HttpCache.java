@@ -0,0 +1,50 @@
+package com.example.chatclient;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded GET responses keyed by path, with the validators needed to revalidate them.
+ * Within its TTL an entry is served without a request; after that it is revalidated with
+ * If-None-Match / If-Modified-Since and a 304 keeps the already-decoded value.
+ * Bounded LRU; mutating calls drop the paths they affect via {@link #invalidate}.
+ */
+class HttpCache {
+  record Entry(Object value, String etag, String lastModified, long expiresAtNanos) {
+    boolean fresh() { return System.nanoTime() - expiresAtNanos < 0; }
+    Entry renewed(Duration ttl) { return new Entry(value, etag, lastModified, System.nanoTime() + ttl.toNanos()); }
+  }
+
+  private final Map<String, Entry> entries;
+  private long generation;
+
+  HttpCache(int maxEntries) {
+    this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> e) { return size() > maxEntries; }
+    };
+  }
+
+  synchronized Entry get(String path) { return entries.get(path); }
+
+  /** Taken before a request; {@link #put} ignores responses that raced with an invalidation. */
+  synchronized long generation() { return generation; }
+
+  synchronized void put(String path, Entry e, long generationAtRequest) {
+    if (generationAtRequest == generation) entries.put(path, e);
+  }
+
+  /** Drops every entry whose path starts with one of {@code prefixes}. */
+  synchronized void invalidate(String... prefixes) {
+    generation++;
+    entries.keySet().removeIf(k -> {
+      for (var p : prefixes) if (k.startsWith(p)) return true;
+      return false;
+    });
+  }
+
+  synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+}
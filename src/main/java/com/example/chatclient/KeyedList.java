@@ -0,0 +1,72 @@
+package com.example.chatclient;
+
+import javafx.collections.ModifiableObservableListBase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Observable list that takes a fresh snapshot with {@link #reconcile} instead of clear-and-add:
+ * rows are matched by key, and only inserted, removed, moved or changed ones are touched, all in
+ * one change event. Rows that stay keep their cells, selection and scroll position.
+ * FX thread only, like any list backing a control.
+ */
+class KeyedList<T, K> extends ModifiableObservableListBase<T> {
+  private final ArrayList<T> items = new ArrayList<>();
+  private final Function<? super T, K> key;
+  private final Function<? super T, ?> content;
+
+  /** A row is replaced when its {@code content} differs, e.g. the text it shows. */
+  KeyedList(Function<? super T, K> key, Function<? super T, ?> content) {
+    this.key = key;
+    this.content = content;
+  }
+
+  /** Makes this list equal to {@code fresh} (same keys, same order) with the fewest edits. */
+  void reconcile(List<? extends T> fresh) {
+    var wanted = new HashSet<K>(fresh.size() * 2);
+    for (var t : fresh) wanted.add(key.apply(t));
+    beginChange();
+    try {
+      // drop what's gone, back to front so indexes stay valid
+      for (int i = items.size() - 1; i >= 0; i--) {
+        if (!wanted.contains(key.apply(items.get(i)))) remove(i);
+      }
+      var present = new HashSet<K>(items.size() * 2);
+      for (var t : items) present.add(key.apply(t));
+      for (int i = 0; i < fresh.size(); i++) {
+        T next = fresh.get(i);
+        K k = key.apply(next);
+        if (i < items.size() && k.equals(key.apply(items.get(i)))) {
+          if (!Objects.equals(content.apply(items.get(i)), content.apply(next))) set(i, next);
+          continue;
+        }
+        if (present.contains(k)) {
+          int from = indexOfKey(k, i + 1); // moved up from further down
+          if (from >= 0) remove(from);
+        }
+        add(i, next);
+      }
+    } finally {
+      endChange();
+    }
+  }
+
+  private int indexOfKey(K k, int from) {
+    for (int j = from; j < items.size(); j++) if (k.equals(key.apply(items.get(j)))) return j;
+    return -1;
+  }
+
+  @Override public T get(int index) { return items.get(index); }
+
+  @Override public int size() { return items.size(); }
+
+  @Override protected void doAdd(int index, T element) { items.add(index, element); }
+
+  @Override protected T doSet(int index, T element) { return items.set(index, element); }
+
+  @Override protected T doRemove(int index) { return items.remove(index); }
+}
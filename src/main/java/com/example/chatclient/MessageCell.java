@@ -0,0 +1,54 @@
+package com.example.chatclient;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.function.Supplier;
+
+/**
+ * Chat bubble cell. The node graph is built once per cell; {@link #updateItem} only swaps
+ * text and the mine/other style class. Header strings are formatted once per message.
+ */
+public class MessageCell extends ListCell<MessageLine> {
+  private final Supplier<String> currentUser;
+  private final HeaderCache headers;
+  private final Label header = new Label();
+  private final Label body = new Label();
+  private final VBox bubble = new VBox(2, header, body);
+  private final HBox row = new HBox(bubble);
+  private Boolean mine;
+
+  public MessageCell(Supplier<String> currentUser, HeaderCache headers) {
+    this.currentUser = currentUser;
+    this.headers = headers;
+    header.getStyleClass().add("msg-header");
+    body.setWrapText(true);
+    body.getStyleClass().add("msg-body");
+    bubble.setMaxWidth(460);
+    row.setFillHeight(true);
+    row.setPadding(new Insets(2, 8, 2, 8));
+  }
+
+  @Override protected void updateItem(MessageLine m, boolean empty) {
+    super.updateItem(m, empty);
+    if (empty || m == null) { setText(null); setGraphic(null); return; }
+
+    header.setText(headers.get(m));
+    body.setText(m.content());
+
+    boolean isMine = m.mine(currentUser.get());
+    if (mine == null || mine != isMine) {
+      mine = isMine;
+      bubble.getStyleClass().removeAll("bubble-me", "bubble-other");
+      bubble.getStyleClass().add(isMine ? "bubble-me" : "bubble-other");
+      row.setAlignment(isMine ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+    }
+
+    if (getGraphic() != row) setGraphic(row);
+    setText(null);
+  }
+}
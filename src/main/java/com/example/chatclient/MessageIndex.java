@@ -0,0 +1,357 @@
+package com.example.chatclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Inverted index over locally known messages, for searching history without the server.
+ *
+ * Each message becomes a document ordinal; the doc table keeps (conversation, message id, sentAt,
+ * record offset in the {@link HistoryStore} file) in primitive arrays and every term maps to an
+ * ascending int posting list of ordinals. A hit carries its offset, so showing it reads one record
+ * rather than the conversation. Scoring is the summed idf of matched terms with recency as
+ * tie-break; the last query term also matches as a prefix. Persisted to one file, posting lists
+ * delta + varint encoded, at most every {@code -DindexSaveIntervalMs} while documents come in.
+ *
+ * Resident size is capped at {@code -DindexMaxDocs}: past it the oldest quarter (by sentAt) is
+ * dropped and anything older than what is left ({@link #horizonMs}) is not indexed again, so the
+ * heap stays flat however long the client runs. History older than that is still searchable, by
+ * {@link HistoryStore#search} scanning the files with {@link #matches}.
+ */
+public class MessageIndex {
+  private static final int MAGIC = 0x4D494433; // "MID3": with record offsets and horizon
+  private static final int MAX_DOCS = Integer.getInteger("indexMaxDocs", 250_000);
+  private static final long SAVE_INTERVAL_MS = Long.getLong("indexSaveIntervalMs", 30_000);
+  private static final int MAX_TERM = 32;
+
+  public record Hit(String conversationId, long messageId, long offset, Instant sentAt, float score) {}
+
+  private final Path file;
+  private final List<UUID> conversations = new ArrayList<>();
+  private final Map<UUID, Integer> convIndex = new HashMap<>();
+  private int[] docConv = new int[1024];
+  private long[] docId = new long[1024];
+  private long[] docTime = new long[1024];
+  private long[] docPos = new long[1024];
+  private int docs;
+  private long horizonMs; // sentAt before which nothing is indexed (any more)
+  private final Set<Long> indexed = new HashSet<>();
+  private final TreeMap<String, Postings> terms = new TreeMap<>();
+  private int unsaved;
+  private long savedAt = System.currentTimeMillis();
+  private boolean saving;
+  private final Object saveLock = new Object(); // one writer of the file at a time, snapshots in order
+  private final ExecutorService saver = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("index-save").factory());
+
+  /** What {@link #save} writes, copied under the monitor so searches and adds don't wait on the disk. */
+  private record Snapshot(List<UUID> conversations, long horizonMs, int docs, int[] docConv, long[] docId,
+                          long[] docTime, long[] docPos, List<String> terms, List<int[]> postings, int unsaved) {}
+
+  /** Growable ascending int list. */
+  private static final class Postings {
+    int[] a = new int[4];
+    int n;
+
+    void add(int doc) {
+      if (n > 0 && a[n - 1] == doc) return;
+      if (n == a.length) a = Arrays.copyOf(a, n * 2);
+      a[n++] = doc;
+    }
+  }
+
+  public MessageIndex(Path file) { this.file = file; }
+
+  public static MessageIndex open(Path file) {
+    var idx = new MessageIndex(file);
+    try {
+      if (Files.exists(file)) idx.load();
+    } catch (IOException | RuntimeException corrupt) {
+      // rebuilt from history as conversations are opened
+      idx = new MessageIndex(file);
+    }
+    return idx;
+  }
+
+  public synchronized int size() { return docs; }
+
+  /** sentAt (ms) before which messages were dropped or never indexed; 0 while nothing was. */
+  public synchronized long horizonMs() { return horizonMs; }
+
+  /**
+   * Offset in the conversation file past the last record indexed from it; everything before was
+   * seen already (or is older than what is kept), so only the rest needs to be decoded again.
+   */
+  public synchronized long indexedEnd(UUID conversationId) {
+    Integer conv = convIndex.get(conversationId);
+    long end = 0;
+    if (conv == null) return end;
+    for (int d = 0; d < docs; d++) if (docConv[d] == conv) end = Math.max(end, docPos[d] + 1);
+    return end;
+  }
+
+  /**
+   * Indexes messages with a server id that are not indexed yet; {@code offsets[i]} is where
+   * {@code messages.get(i)} starts in its conversation file.
+   */
+  public synchronized void addAll(List<ChatMessage> messages, long[] offsets) {
+    for (int i = 0; i < messages.size(); i++) add(messages.get(i), offsets[i]);
+    if (docs > MAX_DOCS) evict(MAX_DOCS - MAX_DOCS / 4);
+    if (unsaved > 0 && !saving && System.currentTimeMillis() - savedAt >= SAVE_INTERVAL_MS) {
+      // not on the caller's thread: that is the history writer or a decode thread
+      saving = true;
+      saver.execute(() -> {
+        try { save(); } catch (IOException ignored) { } finally { synchronized (this) { saving = false; } }
+      });
+    }
+  }
+
+  private void add(ChatMessage m, long offset) {
+    if (m.id() == null || m.conversationId() == null || m.content() == null) return;
+    long time = m.sentAt() != null ? m.sentAt().toEpochMilli() : 0;
+    if (time < horizonMs || !indexed.add(m.id())) return;
+    int conv = convIndex.computeIfAbsent(m.conversationId(), k -> { conversations.add(k); return conversations.size() - 1; });
+    if (docs == docId.length) {
+      docConv = Arrays.copyOf(docConv, docs * 2);
+      docId = Arrays.copyOf(docId, docs * 2);
+      docTime = Arrays.copyOf(docTime, docs * 2);
+      docPos = Arrays.copyOf(docPos, docs * 2);
+    }
+    int doc = docs++;
+    docConv[doc] = conv;
+    docId[doc] = m.id();
+    docTime[doc] = time;
+    docPos[doc] = offset;
+    for (var t : tokenize(m.content())) terms.computeIfAbsent(t, k -> new Postings()).add(doc);
+    if (m.sender() != null) terms.computeIfAbsent("@" + m.sender().toLowerCase(Locale.ROOT), k -> new Postings()).add(doc);
+    unsaved++;
+  }
+
+  /** Keeps about the newest {@code keep} documents, renumbering them in order. */
+  private void evict(int keep) {
+    var times = Arrays.copyOf(docTime, docs);
+    Arrays.sort(times);
+    horizonMs = Math.max(horizonMs, times[docs - keep]);
+    var remap = new int[docs];
+    int n = 0;
+    for (int d = 0; d < docs; d++) {
+      if (docTime[d] < horizonMs) { remap[d] = -1; indexed.remove(docId[d]); continue; }
+      remap[d] = n;
+      docConv[n] = docConv[d]; docId[n] = docId[d]; docTime[n] = docTime[d]; docPos[n] = docPos[d];
+      n++;
+    }
+    docs = n;
+    // remap is ascending where defined, so posting lists stay sorted
+    for (var it = terms.values().iterator(); it.hasNext(); ) {
+      var p = it.next();
+      int k2 = 0;
+      for (int k = 0; k < p.n; k++) { int r = remap[p.a[k]]; if (r >= 0) p.a[k2++] = r; }
+      p.n = k2;
+      if (k2 == 0) it.remove();
+    }
+    unsaved++;
+  }
+
+  public synchronized List<Hit> search(String query, int limit) {
+    var q = tokenize(query);
+    if (q.isEmpty() || docs == 0) return List.of();
+    var score = new float[docs];
+    for (int i = 0; i < q.size(); i++) {
+      var t = q.get(i);
+      // last term: prefix match, so results show up while the word is still being typed
+      var matches = i == q.size() - 1 ? terms.subMap(t, true, t + Character.MAX_VALUE, false).values()
+                                      : singletonOrEmpty(terms.get(t));
+      for (var p : matches) {
+        float idf = (float) Math.log(1.0 + (double) docs / p.n);
+        for (int k = 0; k < p.n; k++) score[p.a[k]] += idf;
+      }
+    }
+    // top-k by score, newest first on ties: bounded min-heap of doc ordinals
+    var heap = new int[Math.max(1, limit)];
+    int size = 0;
+    for (int d = 0; d < docs; d++) {
+      if (score[d] == 0) continue;
+      if (size < heap.length) {
+        heap[size] = d;
+        siftUp(heap, size++, score);
+      } else if (better(d, heap[0], score)) {
+        heap[0] = d;
+        siftDown(heap, size, score);
+      }
+    }
+    var out = new ArrayList<Hit>(size);
+    while (size > 0) {
+      int d = heap[0];
+      heap[0] = heap[--size];
+      siftDown(heap, size, score);
+      out.add(new Hit(conversations.get(docConv[d]).toString(), docId[d], docPos[d], Instant.ofEpochMilli(docTime[d]), score[d]));
+    }
+    java.util.Collections.reverse(out);
+    return out;
+  }
+
+  private boolean better(int x, int y, float[] score) {
+    return score[x] != score[y] ? score[x] > score[y] : docTime[x] > docTime[y];
+  }
+
+  private void siftUp(int[] h, int i, float[] score) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!better(h[parent], h[i], score)) break;
+      int t = h[parent]; h[parent] = h[i]; h[i] = t;
+      i = parent;
+    }
+  }
+
+  private void siftDown(int[] h, int size, float[] score) {
+    int i = 0;
+    while (true) {
+      int l = 2 * i + 1, r = l + 1, min = i;
+      if (l < size && better(h[min], h[l], score)) min = l;
+      if (r < size && better(h[min], h[r], score)) min = r;
+      if (min == i) return;
+      int t = h[min]; h[min] = h[i]; h[i] = t;
+      i = min;
+    }
+  }
+
+  private static List<Postings> singletonOrEmpty(Postings p) { return p == null ? List.of() : List.of(p); }
+
+  /**
+   * Whether {@code m} has every term of {@code query} (tokenized), the last one as a prefix: the
+   * rule for messages searched without the index, which has no idf to rank partial matches by.
+   */
+  static boolean matches(List<String> query, ChatMessage m) {
+    if (m.content() == null) return false;
+    var words = new HashSet<>(tokenize(m.content()));
+    if (m.sender() != null) words.add("@" + m.sender().toLowerCase(Locale.ROOT));
+    for (int i = 0; i < query.size(); i++) {
+      var t = query.get(i);
+      if (i < query.size() - 1 ? !words.contains(t) : words.stream().noneMatch(w -> w.startsWith(t))) return false;
+    }
+    return true;
+  }
+
+  static List<String> tokenize(String text) {
+    var out = new ArrayList<String>();
+    var sb = new StringBuilder();
+    for (int i = 0, n = text.length(); i <= n; i++) {
+      char c = i < n ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        if (sb.length() < MAX_TERM) sb.append(Character.toLowerCase(c));
+      } else if (sb.length() > 0) {
+        out.add(sb.toString());
+        sb.setLength(0);
+      }
+    }
+    return out;
+  }
+
+  /** Writes the index to its file; only taking the snapshot holds up other callers. */
+  public void save() throws IOException {
+    synchronized (saveLock) {
+      var snap = snapshot();
+      if (snap == null) return;
+      write(snap);
+      synchronized (this) {
+        unsaved -= snap.unsaved();
+        savedAt = System.currentTimeMillis();
+      }
+    }
+  }
+
+  private synchronized Snapshot snapshot() {
+    if (unsaved == 0 && Files.exists(file)) return null;
+    var names = new ArrayList<String>(terms.size());
+    var lists = new ArrayList<int[]>(terms.size());
+    for (var e : terms.entrySet()) {
+      names.add(e.getKey());
+      lists.add(Arrays.copyOf(e.getValue().a, e.getValue().n));
+    }
+    return new Snapshot(List.copyOf(conversations), horizonMs, docs, Arrays.copyOf(docConv, docs),
+        Arrays.copyOf(docId, docs), Arrays.copyOf(docTime, docs), Arrays.copyOf(docPos, docs), names, lists, unsaved);
+  }
+
+  private void write(Snapshot s) throws IOException {
+    Files.createDirectories(file.getParent());
+    var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(s.conversations().size());
+      for (var c : s.conversations()) { out.writeLong(c.getMostSignificantBits()); out.writeLong(c.getLeastSignificantBits()); }
+      out.writeLong(s.horizonMs());
+      out.writeInt(s.docs());
+      for (int d = 0; d < s.docs(); d++) {
+        writeVarInt(out, s.docConv()[d]); out.writeLong(s.docId()[d]); out.writeLong(s.docTime()[d]); out.writeLong(s.docPos()[d]);
+      }
+      out.writeInt(s.terms().size());
+      for (int i = 0; i < s.terms().size(); i++) {
+        out.writeUTF(s.terms().get(i));
+        var p = s.postings().get(i);
+        writeVarInt(out, p.length);
+        int prev = 0;
+        for (int doc : p) { writeVarInt(out, doc - prev); prev = doc; }
+      }
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void load() throws IOException {
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC) throw new IOException("not an index file");
+      int convs = in.readInt();
+      for (int i = 0; i < convs; i++) {
+        var c = new UUID(in.readLong(), in.readLong());
+        conversations.add(c);
+        convIndex.put(c, i);
+      }
+      horizonMs = in.readLong();
+      docs = in.readInt();
+      int cap = Math.max(1024, Integer.highestOneBit(Math.max(1, docs)) << 1);
+      docConv = new int[cap]; docId = new long[cap]; docTime = new long[cap]; docPos = new long[cap];
+      for (int d = 0; d < docs; d++) {
+        docConv[d] = readVarInt(in); docId[d] = in.readLong(); docTime[d] = in.readLong(); docPos[d] = in.readLong();
+        indexed.add(docId[d]);
+      }
+      int n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        var t = in.readUTF();
+        var p = new Postings();
+        p.n = readVarInt(in);
+        p.a = new int[Math.max(4, p.n)];
+        int prev = 0;
+        for (int k = 0; k < p.n; k++) { prev += readVarInt(in); p.a[k] = prev; }
+        terms.put(t, p);
+      }
+    }
+  }
+
+  private static void writeVarInt(DataOutputStream out, int v) throws IOException {
+    while ((v & ~0x7F) != 0) { out.writeByte((v & 0x7F) | 0x80); v >>>= 7; }
+    out.writeByte(v);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int v = 0, shift = 0, b;
+    do { b = in.readUnsignedByte(); v |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+    return v;
+  }
+}
@@ -0,0 +1,14 @@
+package com.example.chatclient;
+
+/**
+ * One row of the chat list, kept small because the list lives as long as the app does: the
+ * conversation id is held once by the {@link ConversationWindow}, senders are interned there
+ * and the timestamp is epoch milliseconds. Local system lines have id {@link #NO_ID}.
+ */
+public record MessageLine(long id, String sender, String content, long sentAtMs) {
+  public static final long NO_ID = Long.MIN_VALUE;
+
+  public boolean mine(String currentUser) {
+    return currentUser != null && sender != null && sender.equalsIgnoreCase(currentUser);
+  }
+}
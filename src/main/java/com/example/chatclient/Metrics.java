@@ -0,0 +1,170 @@
+package com.example.chatclient;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters, each also registered as an MXBean under
+ * {@code com.example.chatclient:type=Histogram|Meter,name=...} so jconsole/VisualVM can read
+ * them on a user's machine. {@link #report()} renders the same numbers for the in-app overlay.
+ *
+ * Recording is a few atomic adds: no locks, no allocation. Histograms are log-linear
+ * (8 sub-buckets per power of two, so percentiles are within ~6%) and cumulative until reset.
+ */
+public final class Metrics {
+  private static final String DOMAIN = "com.example.chatclient";
+  private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private static final Map<String, Meter> meters = new ConcurrentHashMap<>();
+
+  private Metrics() { }
+
+  public static Histogram histogram(String name) {
+    var h = histograms.get(name);
+    if (h != null) return h;
+    return histograms.computeIfAbsent(name, n -> register("Histogram", n, new Histogram()));
+  }
+
+  public static Meter meter(String name) {
+    var m = meters.get(name);
+    if (m != null) return m;
+    return meters.computeIfAbsent(name, n -> register("Meter", n, new Meter()));
+  }
+
+  // Bringing up the platform MBean server costs tens of milliseconds; the first metric is
+  // created during startup, so registration happens off the caller's thread.
+  private static <T> T register(String type, String name, T bean) {
+    Thread.ofVirtual().name("metrics-jmx").start(() -> {
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean,
+            new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)));
+      } catch (Exception | LinkageError ignored) {
+        // no JMX (or a name clash): the metric still works for the overlay
+      }
+    });
+    return bean;
+  }
+
+  /** One line per metric, sorted by name. */
+  public static String report() {
+    var lines = new TreeMap<String, String>();
+    histograms.forEach((n, h) -> {
+      if (h.getCount() > 0) lines.put(n, String.format(Locale.ROOT, "%-44s n=%-7d p50 %8.2f  p99 %8.2f  max %8.2f ms",
+          n, h.getCount(), h.getP50Millis(), h.getP99Millis(), h.getMaxMillis()));
+    });
+    meters.forEach((n, m) -> {
+      if (m.getCount() > 0) lines.put(n, String.format(Locale.ROOT, "%-44s %-9d %d/s", n, m.getCount(), m.getPerSecond()));
+    });
+    return String.join("\n", new ArrayList<>(lines.values()));
+  }
+
+  public interface HistogramMXBean {
+    long getCount();
+    double getMeanMillis();
+    double getP50Millis();
+    double getP90Millis();
+    double getP99Millis();
+    double getMaxMillis();
+    void reset();
+  }
+
+  public interface MeterMXBean {
+    long getCount();
+    /** Events in the last full second. */
+    long getPerSecond();
+  }
+
+  /** Nanosecond latencies. */
+  public static final class Histogram implements HistogramMXBean {
+    private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      counts.incrementAndGet(index(nanos));
+      count.increment();
+      sum.add(nanos);
+      long m;
+      while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+    }
+
+    /** Records the time since {@code startNanos} (a {@link System#nanoTime()} reading). */
+    public void since(long startNanos) { record(System.nanoTime() - startNanos); }
+
+    static int index(long v) {
+      if (v < SUB) return (int) v;
+      int e = 63 - Long.numberOfLeadingZeros(v);
+      return (e - SUB_BITS + 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    /** Midpoint of the bucket. */
+    static long value(int index) {
+      if (index < SUB) return index;
+      int e = index / SUB + SUB_BITS - 1;
+      long width = 1L << (e - SUB_BITS);
+      return (SUB + index % SUB) * width + width / 2;
+    }
+
+    public long percentile(double q) {
+      long n = count.sum();
+      if (n == 0) return 0;
+      long target = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        seen += counts.get(i);
+        if (seen >= target) return Math.min(value(i), max.get());
+      }
+      return max.get();
+    }
+
+    @Override public long getCount() { return count.sum(); }
+    @Override public double getMeanMillis() { long n = count.sum(); return n == 0 ? 0 : sum.sum() / 1e6 / n; }
+    @Override public double getP50Millis() { return percentile(0.50) / 1e6; }
+    @Override public double getP90Millis() { return percentile(0.90) / 1e6; }
+    @Override public double getP99Millis() { return percentile(0.99) / 1e6; }
+    @Override public double getMaxMillis() { return max.get() / 1e6; }
+
+    @Override public void reset() {
+      for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+      count.reset();
+      sum.reset();
+      max.set(0);
+    }
+  }
+
+  /** Event counter with a per-second rate over the last full second. */
+  public static final class Meter implements MeterMXBean {
+    private final LongAdder total = new LongAdder();
+    // two one-second slots, indexed by second parity: the current one fills, the other is the last full second
+    private final AtomicLongArray slots = new AtomicLongArray(2);
+    private final AtomicLongArray stamps = new AtomicLongArray(new long[] {-1, -1});
+
+    public void mark() { mark(1); }
+
+    public void mark(long n) {
+      total.add(n);
+      long sec = System.nanoTime() / 1_000_000_000L;
+      int i = (int) (sec & 1);
+      long stamp = stamps.get(i);
+      if (stamp != sec && stamps.compareAndSet(i, stamp, sec)) slots.set(i, 0);
+      slots.addAndGet(i, n);
+    }
+
+    @Override public long getCount() { return total.sum(); }
+
+    @Override public long getPerSecond() {
+      long prev = System.nanoTime() / 1_000_000_000L - 1;
+      int i = (int) (prev & 1);
+      return stamps.get(i) == prev ? slots.get(i) : 0;
+    }
+  }
+}
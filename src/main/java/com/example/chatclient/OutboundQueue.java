@@ -0,0 +1,171 @@
+package com.example.chatclient;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Outgoing messages not yet acknowledged, in send order, backed by a line journal so
+ * nothing typed while offline (or in flight during a crash) is lost.
+ *
+ * Journal lines: {@code S <clientId> <conversationId> <base64 content>} when queued,
+ * {@code A <clientId>} when acknowledged, {@code D <clientId>} when given up on. The file is
+ * rewritten once it is mostly acks.
+ */
+public class OutboundQueue {
+  private static final int COMPACT_AFTER = 1_000;
+
+  public record Outgoing(String clientId, String conversationId, String content) {}
+
+  private final Path journal;
+  private final Map<String, Outgoing> pending = new LinkedHashMap<>();
+  private final Set<String> inFlight = new LinkedHashSet<>();
+  private final Map<String, Integer> misses = new HashMap<>();
+  private BufferedWriter out;
+  private int journalLines;
+
+  /** {@code journal} may be null for a memory-only queue. */
+  public OutboundQueue(Path journal) throws IOException {
+    this.journal = journal;
+    if (journal != null) {
+      replay();
+      rewrite();
+    }
+  }
+
+  public synchronized Outgoing add(String conversationId, String content) throws IOException {
+    var m = new Outgoing(UUID.randomUUID().toString(), conversationId, content);
+    pending.put(m.clientId(), m);
+    write("S " + m.clientId() + " " + conversationId + " "
+        + Base64.getEncoder().encodeToString(content.getBytes(StandardCharsets.UTF_8)));
+    return m;
+  }
+
+  /** Up to {@code max} messages that are neither acked nor in flight, oldest first; marks them in flight. */
+  public synchronized List<Outgoing> nextBatch(int max, int inFlightLimit) {
+    var batch = new ArrayList<Outgoing>();
+    for (var m : pending.values()) {
+      if (batch.size() >= max || inFlight.size() >= inFlightLimit) break;
+      if (!inFlight.add(m.clientId())) continue;
+      batch.add(m);
+    }
+    return batch;
+  }
+
+  /** Acknowledged by the server; returns the message if it was still pending. */
+  public synchronized Outgoing ack(String clientId) throws IOException {
+    return remove(clientId, "A ");
+  }
+
+  /** Given up on (never acknowledged); returns the message if it was still pending. */
+  public synchronized Outgoing drop(String clientId) throws IOException {
+    return remove(clientId, "D ");
+  }
+
+  /** Counts one send of {@code clientId} that went unacknowledged; returns how many so far. */
+  public synchronized int missed(String clientId) {
+    return misses.merge(clientId, 1, Integer::sum);
+  }
+
+  public synchronized boolean isPending(String clientId) { return pending.containsKey(clientId); }
+
+  /** Whether anything for {@code conversationId} still waits to be sent or acknowledged. */
+  public synchronized boolean pendingFor(String conversationId) {
+    for (var m : pending.values()) if (m.conversationId().equals(conversationId)) return true;
+    return false;
+  }
+
+  /**
+   * Oldest in-flight message with this conversation and content, for a server echo that does
+   * not carry our client id back; null if there is none.
+   */
+  public synchronized Outgoing inFlight(String conversationId, String content) {
+    for (var id : inFlight) {
+      var m = pending.get(id);
+      if (m != null && m.conversationId().equals(conversationId) && m.content().equals(content)) return m;
+    }
+    return null;
+  }
+
+  /** Makes a message eligible for sending again (receipt lost, connection dropped). */
+  public synchronized void retry(String clientId) { inFlight.remove(clientId); }
+
+  /** After a reconnect nothing is in flight on the new session. */
+  public synchronized void retryAll() { inFlight.clear(); }
+
+  public synchronized int size() { return pending.size(); }
+
+  public synchronized boolean hasUnsent() { return pending.size() > inFlight.size(); }
+
+  public synchronized void close() throws IOException {
+    if (out != null) out.close();
+    out = null;
+  }
+
+  private Outgoing remove(String clientId, String line) throws IOException {
+    var m = pending.remove(clientId);
+    inFlight.remove(clientId);
+    misses.remove(clientId);
+    if (m == null) return null;
+    write(line + clientId);
+    if (pending.isEmpty() || journalLines > COMPACT_AFTER + 2 * pending.size()) rewrite();
+    return m;
+  }
+
+  private void replay() throws IOException {
+    if (!Files.exists(journal)) return;
+    var text = Files.readString(journal, StandardCharsets.UTF_8);
+    // a crash mid-write leaves the last line without its newline: that add or ack never returned,
+    // and a cut base64 tail would still decode (padding is optional), to a shortened message
+    var complete = text.substring(0, text.lastIndexOf('\n') + 1);
+    for (var line : complete.split("\\R")) {
+      var f = line.split(" ");
+      try {
+        if (f.length == 4 && f[0].equals("S")) {
+          pending.put(f[1], new Outgoing(f[1], f[2], new String(Base64.getDecoder().decode(f[3]), StandardCharsets.UTF_8)));
+        } else if (f.length == 2 && (f[0].equals("A") || f[0].equals("D"))) {
+          pending.remove(f[1]);
+        }
+      } catch (IllegalArgumentException corrupt) {
+        // not base64: skipped like any other line that is not ours
+      }
+    }
+  }
+
+  private void rewrite() throws IOException {
+    if (journal == null) return;
+    if (out != null) out.close();
+    Files.createDirectories(journal.getParent());
+    var tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+    try (var w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      for (var m : pending.values()) {
+        w.write("S " + m.clientId() + " " + m.conversationId() + " "
+            + Base64.getEncoder().encodeToString(m.content().getBytes(StandardCharsets.UTF_8)));
+        w.newLine();
+      }
+    }
+    Files.move(tmp, journal, java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    journalLines = pending.size();
+    out = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  private void write(String line) throws IOException {
+    if (out == null) return;
+    out.write(line);
+    out.newLine();
+    out.flush();
+    journalLines++;
+  }
+}
@@ -0,0 +1,87 @@
+package com.example.chatclient;
+
+import jakarta.websocket.WebSocketContainer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Standard client that keeps measuring the round trip to the server with WebSocket PING/PONG.
+ * Every RFC 6455 server answers a ping right away, below the STOMP layer, so this is network
+ * plus server I/O latency and nothing else; STOMP heart-beats are one-way and can't give it.
+ * The ping payload carries its send time, so no bookkeeping of outstanding pings is needed.
+ */
+class RttWebSocketClient extends StandardWebSocketClient {
+  private static final Metrics.Histogram RTT = Metrics.histogram("ws rtt");
+
+  private final TaskScheduler scheduler;
+  private final Duration interval;
+  private volatile long lastRttNanos = -1;
+
+  RttWebSocketClient(WebSocketContainer container, TaskScheduler scheduler, Duration interval) {
+    super(container);
+    this.scheduler = scheduler;
+    this.interval = interval;
+  }
+
+  /** Most recent round trip in milliseconds, or -1 before the first pong. */
+  double lastRttMillis() {
+    long n = lastRttNanos;
+    return n < 0 ? -1 : n / 1e6;
+  }
+
+  @Override protected CompletableFuture<WebSocketSession> executeInternal(WebSocketHandler handler,
+      HttpHeaders headers, URI uri, List<String> protocols, List<WebSocketExtension> extensions, Map<String, Object> attributes) {
+    return super.executeInternal(new Pinging(handler), headers, uri, protocols, extensions, attributes);
+  }
+
+  private final class Pinging extends WebSocketHandlerDecorator {
+    private ScheduledFuture<?> task;
+
+    Pinging(WebSocketHandler delegate) { super(delegate); }
+
+    @Override public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+      super.afterConnectionEstablished(session);
+      task = scheduler.scheduleAtFixedRate(() -> ping(session), interval);
+    }
+
+    private void ping(WebSocketSession session) {
+      if (!session.isOpen()) return;
+      try {
+        session.sendMessage(new PingMessage(ByteBuffer.allocate(8).putLong(0, System.nanoTime())));
+      } catch (Exception ignored) {
+        // a broken connection is for the heart-beats to detect
+      }
+    }
+
+    @Override public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+      if (message instanceof PongMessage pong && pong.getPayloadLength() == 8) {
+        long rtt = System.nanoTime() - pong.getPayload().getLong(0);
+        lastRttNanos = rtt;
+        RTT.record(rtt);
+      }
+      super.handleMessage(session, message); // still counts as read activity
+    }
+
+    @Override public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+      if (task != null) task.cancel(false);
+      super.afterConnectionClosed(session, status);
+    }
+  }
+}
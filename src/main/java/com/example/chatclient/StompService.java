@@ -1,78 +1,603 @@
 package com.example.chatclient;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.CompositeMessageConverter;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.stomp.*;
-import org.springframework.util.concurrent.ListenableFutureCallback;
 import org.springframework.web.socket.WebSocketHttpHeaders;
-import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 import org.springframework.web.socket.messaging.WebSocketStompClient;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * One STOMP session per login, shared by every open conversation.
+ * Conversations are plain SUBSCRIBE/UNSUBSCRIBE on that session.
+ *
+ * A lost session is re-established with jittered exponential backoff; after each reconnect
+ * every subscribed conversation is gap-filled from its last received message, deduplicated by id.
+ *
+ * Sends go through an {@link OutboundQueue}: journaled first, then flushed in order and acked
+ * by a RECEIPT or by the server's echo on the conversation topic, whichever comes first. The echo
+ * is matched by {@link #CLIENT_MSG_ID}, or by sender and content when the server drops headers.
+ * A frame acked by neither within the receipt time limit is sent again after a growing pause, up
+ * to {@code -DsendAttempts} times; then it is dropped and its future fails. Until its sends are
+ * settled a conversation stays subscribed, even if closed or never opened, or no echo could come.
+ *
+ * Friend request changes arrive on {@code /user/queue/friends} (see {@link #onFriendEvents});
+ * since events sent while the session was down are lost, a reconnect asks for a resync instead.
+ *
+ * Heart-beats go both ways every {@code -DstompHeartbeatMs} (if the server agrees); after three
+ * silent intervals the session is declared dead and reconnected, so a half-open connection
+ * (NAT timeout, laptop sleep) doesn't pass for a live one. Round-trip time to the server is
+ * measured separately with WebSocket pings, see {@link #rttMillis()}.
+ *
+ * Payloads are JSON unless both ends list {@link #SMILE} in an {@code accept-content-type}
+ * header of CONNECT / CONNECTED; then frames go out as Smile. Incoming frames are decoded by
+ * their own content-type either way, so a server can roll over one client at a time.
+ */
 public class StompService {
+  private static final long BACKOFF_BASE_MS = Long.getLong("reconnectBaseMs", 500);
+  private static final long BACKOFF_MAX_MS  = Long.getLong("reconnectMaxMs", 30_000);
+  private static final long HEARTBEAT_MS = Long.getLong("stompHeartbeatMs", 5_000);
+  private static final long RTT_INTERVAL_MS = Long.getLong("rttIntervalMs", 5_000);
+  private static final long CONNECT_TIMEOUT_MS = Long.getLong("stompConnectTimeoutMs", 15_000);
+  private static final int SEEN_IDS = 512;
+  private static final int SEND_BATCH = Integer.getInteger("sendBatch", 32);
+  private static final int SEND_WINDOW = Integer.getInteger("sendWindow", 128);
+  private static final int SEND_ATTEMPTS = Integer.getInteger("sendAttempts", 5);
+  private static final long RESEND_BASE_MS = Long.getLong("resendBaseMs", 2_000);
+  public static final String CLIENT_MSG_ID = "client-msg-id";
+  private static final String FRIENDS_QUEUE = "/user/queue/friends";
+  /**
+   * Binary Jackson Smile payloads. Spring (client and server alike) puts a STOMP frame into a
+   * binary WebSocket message only for application/octet-stream, hence not application/x-jackson-smile.
+   */
+  public static final MimeType SMILE = new MimeType("application", "octet-stream", Map.of("format", "smile"));
+  static final String ACCEPT_CONTENT_TYPE = "accept-content-type";
+  private static final boolean OFFER_SMILE = Boolean.parseBoolean(System.getProperty("stompSmile", "true"));
+  private static final Metrics.Meter FRAMES_IN = Metrics.meter("stomp framesIn");
+  private static final Metrics.Meter FRAMES_OUT = Metrics.meter("stomp framesOut");
+  private static final Metrics.Meter TRANSPORT_ERRORS = Metrics.meter("stomp transportErrors");
+  private static final Metrics.Meter RECONNECTS = Metrics.meter("stomp reconnects");
+  private static final Metrics.Histogram CONNECT_TIME = Metrics.histogram("stomp connect");
+  private static final Metrics.Histogram ACK_TIME = Metrics.histogram("stomp send->ack");
+
+  public enum State { CONNECTED, RECONNECTING, DISCONNECTED }
+
+  /** Fetches messages newer than {@code afterEpochMs}; {@code ApiClient::loadMessagesAfter} fits. */
+  @FunctionalInterface
+  public interface GapFill { List<ChatMessage> after(String conversationId, long afterEpochMs) throws Exception; }
+
   private final WebSocketStompClient client;
-  private StompSession session;
-  
+  private final RttWebSocketClient wsClient;
+  private volatile StompSession session;
+  private volatile boolean peerSmile;
+  private volatile CompletableFuture<StompSession> pending;
+  private String sessionToken;
+  private String sessionUrl;
+  private Consumer<Throwable> sessionOnError;
+  private boolean wanted;
+  private int attempt;
+  private ScheduledFuture<?> retry;
+  private final ScheduledExecutorService reconnector = Shared.TIMERS; // short tasks only
+  private volatile String user;
+  private volatile GapFill gapFill;
+  private volatile Consumer<FriendEvent> friendEvents;
+  private volatile Runnable friendResync;
+  private volatile StompSession.Subscription friendsSub;
+  private volatile java.util.function.BiConsumer<State, Throwable> stateListener = (st, ex) -> {};
+
+  private final Map<String, Consumer<ChatMessage>> handlers = new ConcurrentHashMap<>();
+  private final Map<String, StompSession.Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final Map<String, Seen> seen = new ConcurrentHashMap<>();
+
+  // all outbox work happens on this one (virtual) thread, which keeps frames in queue order
+  private final ExecutorService sender = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("stomp-outbox").factory());
+  private OutboundQueue outbox;
+  private StompSession flushedOn; // sender thread only
+  private final Map<String, CompletableFuture<Void>> acks = new ConcurrentHashMap<>();
+
+  /**
+   * Last received sentAt and the most recent ids of one conversation. Starts at the newest
+   * server-stamped time the caller already has; failing that at the local clock, which is only a
+   * guess (it may run ahead of the server) and gives way to the first history {@link #markSeen}.
+   */
+  private static final class Seen {
+    long lastEpochMs;
+    boolean guessed;
+    final LinkedHashSet<Long> ids = new LinkedHashSet<>();
+
+    Seen(long lastEpochMs, boolean guessed) { this.lastEpochMs = lastEpochMs; this.guessed = guessed; }
+
+    static Seen from(long seenThroughMs) {
+      return seenThroughMs > 0 ? new Seen(seenThroughMs, false) : new Seen(System.currentTimeMillis(), true);
+    }
+
+    synchronized void history(List<ChatMessage> messages) {
+      long newest = 0;
+      for (var m : messages) if (m.sentAt() != null) newest = Math.max(newest, m.sentAt().toEpochMilli());
+      if (guessed && newest > 0) { lastEpochMs = newest; guessed = false; }
+      for (var m : messages) add(m);
+    }
+
+    synchronized boolean add(ChatMessage m) {
+      if (m.id() != null) {
+        if (!ids.add(m.id())) return false;
+        if (ids.size() > SEEN_IDS) { var it = ids.iterator(); it.next(); it.remove(); }
+      }
+      if (m.sentAt() != null) lastEpochMs = Math.max(lastEpochMs, m.sentAt().toEpochMilli());
+      return true;
+    }
+
+    synchronized long last() { return lastEpochMs; }
+  }
+
+  /**
+   * Per JVM rather than per instance: the WebSocket container (with its I/O threads), the
+   * heart-beat scheduler and the reconnect timer. A process hosting hundreds of sessions would
+   * otherwise start a dozen threads for each. Likewise the (thread-safe) payload converter, so its
+   * mappers and their serializer caches exist once. Created with the first instance.
+   */
+  private static final class Shared {
+    static final WebSocketContainer CONTAINER = webSocketContainer();
+    static final ThreadPoolTaskScheduler SCHEDULER = new ThreadPoolTaskScheduler();
+    static final ScheduledExecutorService TIMERS = Executors.newSingleThreadScheduledExecutor(r -> {
+      var t = new Thread(r, "stomp-reconnect"); t.setDaemon(true); return t;
+    });
+    static final SimpleAsyncTaskExecutor HANDSHAKES = new SimpleAsyncTaskExecutor("stomp-connect-");
+    static final MessageConverter CONVERTER = messageConverter();
+
+    static {
+      SCHEDULER.setPoolSize(Integer.getInteger("stompSchedulerThreads", 2));
+      SCHEDULER.setDaemon(true);
+      SCHEDULER.setThreadNamePrefix("stomp-sched-");
+      SCHEDULER.initialize();
+      HANDSHAKES.setVirtualThreads(true);
+    }
+  }
 
   public StompService() {
-	  var wsClient = new org.springframework.web.socket.client.standard.StandardWebSocketClient();
-	  this.client = new org.springframework.web.socket.messaging.WebSocketStompClient(wsClient);
+	  this.wsClient = new RttWebSocketClient(Shared.CONTAINER, Shared.SCHEDULER, java.time.Duration.ofMillis(RTT_INTERVAL_MS));
+	  this.wsClient.setTaskExecutor(Shared.HANDSHAKES);
+	  this.client = new WebSocketStompClient(wsClient);
 
-	  var mapper = new ObjectMapper()
-	      .registerModule(new JavaTimeModule())
-	      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-	      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+	  this.client.setMessageConverter(Shared.CONVERTER);
+	  this.client.setTaskScheduler(Shared.SCHEDULER);
+	  this.client.setDefaultHeartbeat(new long[] {HEARTBEAT_MS, HEARTBEAT_MS});
+	  this.client.setReceiptTimeLimit(Long.getLong("receiptTimeoutMs", 10_000));
 
-	  var conv = new MappingJackson2MessageConverter();
-	  conv.setObjectMapper(mapper);
-	  this.client.setMessageConverter(conv);
+	  try { this.outbox = new OutboundQueue(null); } catch (IOException e) { throw new IllegalStateException(e); }
 	}
 
+  /**
+   * Tyrus container, offering permessage-deflate unless {@code -DwsDeflate=false}. Its transport
+   * is shared by all connections; by default Tyrus starts selector and worker threads for each.
+   */
+  private static WebSocketContainer webSocketContainer() {
+    var c = ContainerProvider.getWebSocketContainer();
+    if (c instanceof ClientManager cm) cm.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+    return Boolean.parseBoolean(System.getProperty("wsDeflate", "true")) ? new DeflateWebSocketContainer(c) : c;
+  }
 
-  public void connect(String url, String token, String conversationId,
-                      Consumer<ChatMessage> onMessage, Runnable onConnected, Consumer<Throwable> onError) {
+  /** The payload converters used on the wire, picked by content-type; package-visible for the benchmarks. */
+  static MessageConverter messageConverter() {
+    var mapper = new ObjectMapper()
+        .registerModule(new JavaTimeModule())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
 
+    var json = new MappingJackson2MessageConverter();
+    json.setObjectMapper(mapper);
+
+    // only frames that say they are Smile; JSON stays the fallback, also for frames without a type
+    var smile = new MappingJackson2MessageConverter(SMILE) {
+      @Override protected boolean supportsMimeType(MessageHeaders headers) { return isSmile(getMimeType(headers)); }
+    };
+    smile.setObjectMapper(smileMapper());
+    return new CompositeMessageConverter(List.of(smile, json));
+  }
+
+  /**
+   * Smile mapper for STOMP payloads. UUIDs go out as 16 raw bytes (Jackson does that for binary
+   * formats) and timestamps as epoch milliseconds instead of ISO strings.
+   */
+  static ObjectMapper smileMapper() {
+    return new ObjectMapper(new SmileFactory())
+        .registerModule(new JavaTimeModule())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        .enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .disable(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS)
+        .disable(DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS);
+  }
+
+  /** Whether an {@code accept-content-type} header value lists {@link #SMILE}. */
+  static boolean acceptsSmile(String accept) {
+    return accept != null && MimeTypeUtils.parseMimeTypes(accept).stream().anyMatch(StompService::isSmile);
+  }
+
+  /** Type and subtype alone would match any octet-stream; the parameter is what says Smile. */
+  static boolean isSmile(MimeType type) {
+    return type != null && SMILE.isCompatibleWith(type) && "smile".equals(type.getParameter("format"));
+  }
+
+  /** Switches to a journaled outbox (per user); anything left in it from last time is sent on connect. */
+  public void useOutbox(Path journal) throws IOException {
+    var q = new OutboundQueue(journal);
+    CompletableFuture.runAsync(() -> {
+      try { outbox.close(); } catch (IOException ignored) { }
+      outbox = q;
+      flush();
+    }, sender).join();
+  }
+
+  /**
+   * Opens the shared session, or returns the live one if it was opened with the same token.
+   * Conversations registered with {@link #subscribe} are (re)subscribed once connected.
+   */
+  public synchronized CompletableFuture<StompSession> connect(String url, String token, Consumer<Throwable> onError) {
+    var s = session;
+    if (s != null && s.isConnected() && token.equals(sessionToken)) return CompletableFuture.completedFuture(s);
+    if (pending != null && !pending.isDone() && token.equals(sessionToken)) return pending;
+    disconnect();
+    sessionUrl = url;
+    sessionToken = token;
+    sessionOnError = onError;
+    wanted = true;
+    attempt = 0;
+    return open(false);
+  }
+
+  private synchronized CompletableFuture<StompSession> open(boolean reconnect) {
     var hs = new WebSocketHttpHeaders();
-    hs.add("Authorization", "Bearer " + token);
+    hs.add("Authorization", "Bearer " + sessionToken);
 
     var ch = new StompHeaders();
-    ch.add("Authorization", "Bearer " + token);
+    ch.add("Authorization", "Bearer " + sessionToken);
+    if (OFFER_SMILE) ch.add(ACCEPT_CONTENT_TYPE, SMILE + ", application/json");
 
-    client.connect(url, hs, ch, new StompSessionHandlerAdapter() {
+    var onError = sessionOnError;
+    long t0 = System.nanoTime();
+    if (reconnect) RECONNECTS.mark();
+    var timedOut = new java.util.concurrent.atomic.AtomicBoolean();
+    // this attempt's future; callbacks of an attempt that is no longer pending are stale
+    var self = new java.util.concurrent.atomic.AtomicReference<CompletableFuture<StompSession>>();
+    var f = client.connectAsync(sessionUrl, hs, ch, new StompSessionHandlerAdapter() {
       @Override public void afterConnected(StompSession s, StompHeaders h) {
-        session = s;
-
-        // ✅ subscribe to the SAME destination your server publishes to:
-        // broker.convertAndSend("/topic/chat." + conversationId, ...)
-        s.subscribe("/topic/chat." + conversationId, new StompFrameHandler() {
-          @Override public Type getPayloadType(StompHeaders headers) { return ChatMessage.class; }
-          @Override public void handleFrame(StompHeaders headers, Object payload) {
-            onMessage.accept((ChatMessage) payload);
-          }
-        });
-
-        if (onConnected != null) onConnected.run();
+        CONNECT_TIME.since(t0);
+        synchronized (StompService.this) {
+          // a slow handshake superseded by disconnect()/connect() (maybe another user's) must not take over
+          if (!wanted || timedOut.get() || pending != self.get()) { s.disconnect(); return; }
+          session = s;
+          attempt = 0;
+          peerSmile = OFFER_SMILE && acceptsSmile(h.getFirst(ACCEPT_CONTENT_TYPE));
+        }
+        // gap-fill cursors before resubscribing: a live frame must not move them past the outage
+        var cursors = reconnect ? gapCursors() : Map.<String, Long>of();
+        subscriptions.clear();
+        handlers.keySet().forEach(id -> doSubscribe(s, id));
+        if (friendEvents != null) subscribeFriends(s);
+        stateListener.accept(State.CONNECTED, null);
+        sender.execute(StompService.this::flush);
+        // both call the server: off the shared timer thread
+        if (reconnect) Thread.ofVirtual().name("stomp-gapfill").start(() -> fillGaps(cursors));
+        var resync = friendResync;
+        if (reconnect && resync != null) Thread.ofVirtual().name("stomp-resync").start(resync);
       }
 
       @Override public void handleTransportError(StompSession s, Throwable ex) {
+        TRANSPORT_ERRORS.mark();
+        if (s != session && pending != self.get()) return; // stale attempt
+        if (onError != null) onError.accept(ex);
+        if (!s.isConnected()) scheduleReconnect(s, ex);
+      }
+    });
+    // heart-beats only start with the session: a handshake into a dead network needs its own limit
+    reconnector.schedule(() -> {
+      if (!f.isDone() && timedOut.compareAndSet(false, true)) {
+        f.completeExceptionally(new java.util.concurrent.TimeoutException("no CONNECTED within " + CONNECT_TIMEOUT_MS + " ms"));
+      }
+    }, CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    f.whenComplete((r, ex) -> {
+      // cancelled by disconnect() or superseded: not an error, and not ours to reconnect
+      if (ex == null || ex instanceof java.util.concurrent.CancellationException) return;
+      synchronized (StompService.this) { if (pending != f) return; }
+      if (onError != null && !reconnect) onError.accept(ex);
+      scheduleReconnect(null, ex);
+    });
+    self.set(f);
+    pending = f;
+    return f;
+  }
+
+  /** Full-jitter exponential backoff so a server failover is not met by every client at once. */
+  private synchronized void scheduleReconnect(StompSession lost, Throwable cause) {
+    if (!wanted || (lost != null && lost != session) || (retry != null && !retry.isDone())) return;
+    session = null;
+    long cap = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt, 16));
+    long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+    attempt++;
+    stateListener.accept(State.RECONNECTING, cause);
+    retry = reconnector.schedule(() -> {
+      synchronized (this) { if (wanted && session == null) open(true); }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /** Last received sentAt (or where {@link Seen} started) of every subscribed conversation. */
+  private Map<String, Long> gapCursors() {
+    var out = new java.util.HashMap<String, Long>();
+    for (var id : handlers.keySet()) {
+      var s = seen.get(id);
+      if (s != null) out.put(id, s.last());
+    }
+    return out;
+  }
+
+  private void fillGaps(Map<String, Long> cursors) {
+    var fill = gapFill;
+    if (fill == null) return;
+    for (var c : cursors.entrySet()) {
+      var id = c.getKey();
+      if (!handlers.containsKey(id)) continue; // closed meanwhile
+      try {
+        // server filters by millisecond; overlap is dropped by id in deliver()
+        for (var m : fill.after(id, Math.max(0, c.getValue() - 1))) deliver(id, m);
+      } catch (Exception ex) {
+        var onError = sessionOnError;
         if (onError != null) onError.accept(ex);
       }
-    }).addCallback(new ListenableFutureCallback<>() {
-      @Override public void onFailure(Throwable ex) { if (onError != null) onError.accept(ex); }
-      @Override public void onSuccess(StompSession r) {}
+    }
+  }
+
+  public void setGapFill(GapFill gapFill) { this.gapFill = gapFill; }
+
+  /** Logged-in username; lets an echo of our own message without {@link #CLIENT_MSG_ID} ack it. */
+  public void setUser(String username) { this.user = username; }
+
+  /**
+   * Routes friend request events for the logged-in user to {@code onEvent}. {@code resync} runs
+   * after every reconnect, when the caller should reload its lists once.
+   */
+  public void onFriendEvents(Consumer<FriendEvent> onEvent, Runnable resync) {
+    this.friendResync = resync;
+    this.friendEvents = onEvent;
+    var s = session;
+    if (s != null && s.isConnected() && friendsSub == null) subscribeFriends(s);
+  }
+
+  private void subscribeFriends(StompSession s) {
+    friendsSub = s.subscribe(FRIENDS_QUEUE, new StompFrameHandler() {
+      @Override public Type getPayloadType(StompHeaders headers) { return FriendEvent.class; }
+      @Override public void handleFrame(StompHeaders headers, Object payload) {
+        FRAMES_IN.mark();
+        var h = friendEvents;
+        if (h != null) h.accept((FriendEvent) payload);
+      }
     });
   }
 
-  public void send(String conversationId, String content) {
-    if (session == null || !session.isConnected()) throw new IllegalStateException("Not connected");
-    var msg = new ChatMessage(null, UUID.fromString(conversationId), "", content, null);
+  public void setStateListener(java.util.function.BiConsumer<State, Throwable> listener) {
+    this.stateListener = listener != null ? listener : (st, ex) -> {};
+  }
+
+  /** Records messages the caller already shows (e.g. history) so gap-fill starts after them and skips them. */
+  public void markSeen(String conversationId, List<ChatMessage> messages) {
+    seen.computeIfAbsent(conversationId, k -> Seen.from(0)).history(messages);
+  }
+
+  private void deliver(String conversationId, ChatMessage m) {
+    var h = handlers.get(conversationId);
+    if (h == null) return;
+    var s = seen.computeIfAbsent(conversationId, k -> Seen.from(0));
+    if (s.add(m)) h.accept(m);
+  }
+
+  /** Single-conversation convenience: connect (or reuse the session) and subscribe. */
+  public void connect(String url, String token, String conversationId,
+                      Consumer<ChatMessage> onMessage, Runnable onConnected, Consumer<Throwable> onError) {
+    subscribe(conversationId, onMessage);
+    connect(url, token, onError).thenRun(() -> { if (onConnected != null) onConnected.run(); });
+  }
+
+  /** {@link #subscribe(String, Consumer, long)} when nothing about the conversation is known yet. */
+  public void subscribe(String conversationId, Consumer<ChatMessage> onMessage) {
+    subscribe(conversationId, onMessage, 0);
+  }
+
+  /**
+   * Routes {@code /topic/chat.<id>} frames to {@code onMessage}; subscribes now if the session is up.
+   * {@code seenThroughMs} is the newest server sentAt the caller has (e.g. the history sync mark),
+   * where gap-fill starts after a reconnect; 0 if none.
+   */
+  public void subscribe(String conversationId, Consumer<ChatMessage> onMessage, long seenThroughMs) {
+    var prev = handlers.put(conversationId, onMessage);
+    seen.putIfAbsent(conversationId, Seen.from(seenThroughMs));
+    var s = session;
+    if (prev == null && s != null && s.isConnected()) doSubscribe(s, conversationId);
+  }
+
+  /** Stops delivering {@code conversationId}; the subscription itself goes once its sends are settled. */
+  public void unsubscribe(String conversationId) {
+    handlers.remove(conversationId);
+    seen.remove(conversationId);
+    sender.execute(() -> release(conversationId));
+  }
+
+  /** Sender thread only. UNSUBSCRIBEs unless the conversation is open or still has sends out. */
+  private void release(String conversationId) {
+    if (handlers.containsKey(conversationId) || outbox.pendingFor(conversationId)) return;
+    var sub = subscriptions.remove(conversationId);
+    var s = session;
+    if (sub != null && s != null && s.isConnected()) sub.unsubscribe();
+  }
+
+  public synchronized void disconnect() {
+    wanted = false;
+    if (retry != null) retry.cancel(false);
+    var s = session;
+    session = null;
+    subscriptions.clear();
+    friendsSub = null;
+    var p = pending;
+    pending = null; // before cancelling: the attempt's callbacks check it
+    if (p != null && !p.isDone()) p.cancel(true);
+    if (s != null && s.isConnected()) s.disconnect();
+    if (s != null) stateListener.accept(State.DISCONNECTED, null);
+  }
+
+  /** Last WebSocket round trip to the server in milliseconds, or -1 if none was measured yet. */
+  public double rttMillis() { return wsClient.lastRttMillis(); }
+
+  public boolean isConnected() {
+    var s = session;
+    return s != null && s.isConnected();
+  }
+
+  private void doSubscribe(StompSession s, String conversationId) {
+    // destination the server publishes to: broker.convertAndSend("/topic/chat." + conversationId, ...)
+    var sub = s.subscribe("/topic/chat." + conversationId, new StompFrameHandler() {
+      @Override public Type getPayloadType(StompHeaders headers) { return ChatMessage.class; }
+      @Override public void handleFrame(StompHeaders headers, Object payload) {
+        FRAMES_IN.mark();
+        var m = (ChatMessage) payload;
+        var echoed = headers.getFirst(CLIENT_MSG_ID);
+        if (echoed != null) sender.execute(() -> acked(echoed));
+        else if (m.mine(user)) sender.execute(() -> ackEcho(conversationId, m.content()));
+        deliver(conversationId, m);
+      }
+    });
+    var prev = subscriptions.put(conversationId, sub);
+    if (prev != null) prev.unsubscribe();
+  }
+
+  /**
+   * Queues {@code content} for {@code conversationId}. Never blocks and works offline; the future
+   * completes once the server acknowledged the frame (RECEIPT, or an echo carrying our client id).
+   */
+  public CompletableFuture<Void> send(String conversationId, String content) {
+    var done = new CompletableFuture<Void>();
+    long t0 = System.nanoTime();
+    done.thenRun(() -> ACK_TIME.since(t0));
+    sender.execute(() -> {
+      try {
+        var m = outbox.add(conversationId, content);
+        acks.put(m.clientId(), done);
+        flush();
+      } catch (Exception ex) {
+        done.completeExceptionally(ex);
+      }
+    });
+    return done;
+  }
+
+  public int pendingSends() { return outbox.size(); }
+
+  /** Sender thread only. */
+  private void flush() {
+    var s = session;
+    if (s == null || !s.isConnected()) return;
+    var q = outbox;
+    if (s != flushedOn) {
+      // first flush on a new session: whatever was in flight on the old one never got its receipt.
+      // Decided here on the sender thread; clearing from the connect callback raced with sends
+      // already going out on the new session and duplicated them.
+      q.retryAll();
+      flushedOn = s;
+    }
+    while (q.hasUnsent()) {
+      var batch = q.nextBatch(SEND_BATCH, SEND_WINDOW);
+      if (batch.isEmpty()) return;
+      for (var m : batch) {
+        // the echo is one of the acks: listen for it even where nobody reads the conversation
+        if (!subscriptions.containsKey(m.conversationId())) doSubscribe(s, m.conversationId());
+        var h = new StompHeaders();
+        h.setDestination("/app/send");
+        h.setReceipt(m.clientId());
+        h.set(CLIENT_MSG_ID, m.clientId());
+        if (peerSmile) h.setContentType(SMILE);
+        try {
+          var r = s.send(h, new ChatMessage(null, UUID.fromString(m.conversationId()), "", m.content(), null));
+          FRAMES_OUT.mark();
+          r.addReceiptTask(() -> sender.execute(() -> acked(m.clientId())));
+          r.addReceiptLostTask(() -> sender.execute(() -> missed(q, s, m)));
+        } catch (Exception ex) {
+          q.retry(m.clientId());
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sender thread only. Neither a RECEIPT nor the echo came for {@code m}: resend after a pause
+   * that doubles each time, or give up. A dead session resends on the next one anyway (retryAll).
+   */
+  private void missed(OutboundQueue q, StompSession s, OutboundQueue.Outgoing m) {
+    if (q != outbox || s != session || !q.isPending(m.clientId())) return;
+    int n = q.missed(m.clientId());
+    if (n >= SEND_ATTEMPTS) {
+      try { q.drop(m.clientId()); } catch (IOException ignored) { }
+      var f = acks.remove(m.clientId());
+      if (f != null) f.completeExceptionally(new java.util.concurrent.TimeoutException(
+          "not acknowledged after " + n + " attempts"));
+      release(m.conversationId());
+      flush();
+      return;
+    }
+    long delay = Math.min(BACKOFF_MAX_MS, RESEND_BASE_MS << Math.min(n - 1, 16));
+    reconnector.schedule(() -> sender.execute(() -> {
+      if (q != outbox || s != session) return;
+      q.retry(m.clientId()); // no-op if acked meanwhile
+      flush();
+    }), delay, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sender thread only. Our own message came back without its client id. */
+  private void ackEcho(String conversationId, String content) {
+    var m = outbox.inFlight(conversationId, content);
+    if (m != null) acked(m.clientId());
+  }
 
-    session.send("/app/send", msg);
+  /** Sender thread only. */
+  private void acked(String clientId) {
+    OutboundQueue.Outgoing m = null;
+    try {
+      m = outbox.ack(clientId);
+    } catch (IOException ignored) {
+      // journal write failed; worst case the message is resent next start
+    }
+    var f = acks.remove(clientId);
+    if (f != null) f.complete(null);
+    if (m != null) release(m.conversationId());
+    flush();
   }
 }
@@ -0,0 +1,84 @@
+package com.example.chatclient;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs background work on virtual threads.
+ *
+ * {@link #shared} lets identical in-flight calls (same key) share one result;
+ * {@link #latest} cancels whatever was still running under the same key.
+ * Cancelling a returned future interrupts the worker, which aborts a blocking HttpClient.send.
+ */
+public class TaskRunner implements AutoCloseable {
+  private final ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor();
+  private final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, CompletableFuture<?>> current = new ConcurrentHashMap<>();
+
+  public <T> CompletableFuture<T> submit(Callable<T> task) {
+    var cf = new CompletableFuture<T>();
+    var f = exec.submit(() -> {
+      try { cf.complete(task.call()); }
+      catch (Throwable t) { cf.completeExceptionally(t); }
+    });
+    cf.whenComplete((r, t) -> { if (cf.isCancelled()) f.cancel(true); });
+    return cf;
+  }
+
+  public CompletableFuture<Void> run(ThrowingRunnable task) {
+    return submit(() -> { task.run(); return null; });
+  }
+
+  /** Joins an identical call that is already running instead of starting a second one. */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> shared(String key, Callable<T> task) {
+    var created = new AtomicReference<CompletableFuture<T>>();
+    var cf = (CompletableFuture<T>) inFlight.computeIfAbsent(key, k -> { var f = submit(task); created.set(f); return f; });
+    if (created.get() != null) cf.whenComplete((r, t) -> inFlight.remove(key, cf));
+    // callers get their own stage so one caller cancelling does not cancel the others
+    return cf.thenApply(r -> r);
+  }
+
+  /** {@link #shared} for calls that are already asynchronous; no thread is held while they run. */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> sharedAsync(String key, Supplier<CompletableFuture<T>> call) {
+    var created = new AtomicReference<CompletableFuture<T>>();
+    var cf = (CompletableFuture<T>) inFlight.computeIfAbsent(key, k -> { var f = call.get(); created.set(f); return f; });
+    if (created.get() != null) cf.whenComplete((r, t) -> inFlight.remove(key, cf));
+    return cf.thenApply(r -> r);
+  }
+
+  /** {@link #latest} for calls that are already asynchronous; cancelling must abort the call itself. */
+  public <T> CompletableFuture<T> latestAsync(String key, Supplier<CompletableFuture<T>> call) {
+    var cf = call.get();
+    var prev = current.put(key, cf);
+    if (prev != null) prev.cancel(true);
+    cf.whenComplete((r, t) -> current.remove(key, cf));
+    return cf;
+  }
+
+  /** Starts {@code task} and cancels the previous one submitted under {@code key}, if still running. */
+  public <T> CompletableFuture<T> latest(String key, Callable<T> task) {
+    var cf = submit(task);
+    var prev = current.put(key, cf);
+    if (prev != null) prev.cancel(true);
+    cf.whenComplete((r, t) -> current.remove(key, cf));
+    return cf;
+  }
+
+  /** Cancels whatever is running under {@code key} via {@link #latest}/{@link #latestAsync}. */
+  public void cancel(String key) {
+    var cf = current.remove(key);
+    if (cf != null) cf.cancel(true);
+  }
+
+  @Override public void close() { exec.shutdownNow(); }
+
+  @FunctionalInterface
+  public interface ThrowingRunnable { void run() throws Exception; }
+}
@@ -0,0 +1,73 @@
+package com.example.chatclient;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trie of users returned by {@code /api/users/search}, keyed by lower-cased username and display name.
+ *
+ * The server matches by prefix, so once a query came back complete (fewer rows than the server's
+ * page limit) every refinement of it can be answered from the trie without a round trip.
+ */
+public class UserSearchIndex {
+  public static final int SERVER_PAGE_LIMIT = Integer.getInteger("searchPageLimit", 20);
+
+  private static final class Node {
+    final Map<Character, Node> children = new HashMap<>(4);
+    final Map<String, UserSummary> users = new LinkedHashMap<>(2);
+  }
+
+  private Node root = new Node();
+  private final Set<String> complete = new HashSet<>();
+
+  /** Results for {@code query} if a complete earlier query covers it, otherwise null. */
+  public synchronized List<UserSummary> answer(String query) {
+    var key = query.toLowerCase(Locale.ROOT);
+    for (int i = key.length(); i > 0; i--) {
+      if (complete.contains(key.substring(0, i))) return collect(key);
+    }
+    return null;
+  }
+
+  public synchronized void record(String query, List<UserSummary> results) {
+    for (var u : results) {
+      insert(u.username(), u);
+      if (u.displayName() != null) insert(u.displayName(), u);
+    }
+    if (results.size() < SERVER_PAGE_LIMIT) complete.add(query.toLowerCase(Locale.ROOT));
+  }
+
+  public synchronized void clear() {
+    root = new Node();
+    complete.clear();
+  }
+
+  private void insert(String key, UserSummary u) {
+    var n = root;
+    for (char c : key.toLowerCase(Locale.ROOT).toCharArray()) n = n.children.computeIfAbsent(c, k -> new Node());
+    n.users.put(u.username(), u);
+  }
+
+  private List<UserSummary> collect(String prefix) {
+    var n = root;
+    for (char c : prefix.toCharArray()) {
+      n = n.children.get(c);
+      if (n == null) return List.of();
+    }
+    var out = new LinkedHashMap<String, UserSummary>();
+    var todo = new ArrayDeque<Node>();
+    todo.push(n);
+    while (!todo.isEmpty()) {
+      var cur = todo.pop();
+      cur.users.forEach(out::putIfAbsent);
+      todo.addAll(cur.children.values());
+    }
+    return List.copyOf(out.values());
+  }
+}
@@ -0,0 +1,4 @@
+package com.example.chatclient;
+
+/** Row of {@code GET /api/users/search}. */
+public record UserSummary(String id, String username, String displayName) {}
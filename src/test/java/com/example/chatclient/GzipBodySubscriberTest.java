@@ -0,0 +1,109 @@
+package com.example.chatclient;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GzipBodySubscriberTest {
+  private static final Flow.Subscription NO_OP = new Flow.Subscription() {
+    @Override public void request(long n) { }
+    @Override public void cancel() { }
+  };
+
+  private static byte[] gzip(String text) throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    try (var out = new GZIPOutputStream(bytes)) {
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Feeds {@code body} in chunks of {@code chunk} bytes and returns what the string handler got. */
+  private static String inflate(byte[] body, int chunk) throws Exception {
+    var s = new GzipBodySubscriber<>(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8));
+    s.onSubscribe(NO_OP);
+    for (int i = 0; i < body.length; i += chunk) {
+      var items = new ArrayList<ByteBuffer>();
+      items.add(ByteBuffer.wrap(Arrays.copyOfRange(body, i, Math.min(body.length, i + chunk))));
+      s.onNext(items);
+    }
+    s.onComplete();
+    return s.getBody().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private static Throwable failure(byte[] body) {
+    var e = assertThrows(ExecutionException.class, () -> inflate(body, 7));
+    return e.getCause();
+  }
+
+  @Test
+  void inflatesWholeAndSplitBodies() throws Exception {
+    var text = "hello, ".repeat(5_000);
+    var body = gzip(text);
+    assertEquals(text, inflate(body, body.length));
+    assertEquals(text, inflate(body, 3)); // header, deflate stream and trailer all cut up
+  }
+
+  @Test
+  void emptyContentRoundTrips() throws Exception {
+    assertEquals("", inflate(gzip(""), 1));
+  }
+
+  @Test
+  void emptyBodyIsEmpty() throws Exception {
+    assertEquals("", inflate(new byte[0], 1));
+  }
+
+  @Test
+  void truncatedBodyFails() throws Exception {
+    var body = gzip("some text that is long enough to be cut ".repeat(50));
+    assertInstanceOf(EOFException.class, failure(Arrays.copyOf(body, body.length / 2)));
+    assertInstanceOf(EOFException.class, failure(Arrays.copyOf(body, 5))); // inside the header
+  }
+
+  @Test
+  void missingTrailerFails() throws Exception {
+    var body = gzip("trailer goes missing");
+    assertInstanceOf(ZipException.class, failure(Arrays.copyOf(body, body.length - 4)));
+  }
+
+  @Test
+  void corruptTrailerFails() throws Exception {
+    var body = gzip("checksum does not match");
+    body[body.length - 8] ^= 1;
+    assertInstanceOf(ZipException.class, failure(body));
+  }
+
+  @Test
+  void notGzipFails() {
+    assertInstanceOf(ZipException.class, failure("plain text, not gzip".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void itemsOfOneCallAreInflatedInOrder() throws Exception {
+    var body = gzip("first part and second part");
+    var s = new GzipBodySubscriber<>(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8));
+    s.onSubscribe(NO_OP);
+    int half = body.length / 2;
+    s.onNext(List.of(ByteBuffer.wrap(body, 0, half), ByteBuffer.wrap(body, half, body.length - half)));
+    s.onComplete();
+    assertEquals("first part and second part", s.getBody().toCompletableFuture().get(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,169 @@
+package com.example.chatclient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HistoryStoreTest {
+  private static final UUID CONV = UUID.fromString("11111111-1111-1111-1111-111111111111");
+  private static final String C = CONV.toString();
+
+  @TempDir Path dir;
+  private final List<HistoryStore> open = new ArrayList<>();
+
+  @AfterEach
+  void closeStores() {
+    open.forEach(HistoryStore::close);
+  }
+
+  private HistoryStore store() {
+    var s = new HistoryStore(dir);
+    open.add(s);
+    return s;
+  }
+
+  private static ChatMessage msg(long id) {
+    return new ChatMessage(id, CONV, "alice", "message " + id, Instant.ofEpochSecond(1_000 + id, 500_000));
+  }
+
+  private static List<ChatMessage> msgs(long from, long to) {
+    var out = new ArrayList<ChatMessage>();
+    for (long id = from; id <= to; id++) out.add(msg(id));
+    return out;
+  }
+
+  private static List<Long> ids(List<ChatMessage> messages) {
+    return messages.stream().map(ChatMessage::id).toList();
+  }
+
+  @Test
+  void pagesNewestFirstAcrossAppendOrder() throws Exception {
+    var store = store();
+    store.append(C, msgs(11, 20));
+    store.append(C, msgs(1, 10)); // a scroll-back page lands after newer records
+
+    var newest = store.before(C, null, 4);
+    assertEquals(List.of(17L, 18L, 19L, 20L), ids(newest));
+    var older = store.before(C, HistoryStore.Cursor.of(newest.get(0)), 8);
+    assertEquals(List.of(9L, 10L, 11L, 12L, 13L, 14L, 15L, 16L), ids(older));
+    assertEquals(List.of(1L, 2L), ids(store.before(C, HistoryStore.Cursor.of(msg(3)), 8)));
+    assertEquals(1L, store.oldestId(C));
+  }
+
+  @Test
+  void cursorThroughIncludesThatMillisecond() throws Exception {
+    var store = store();
+    store.append(C, msgs(1, 5));
+
+    var page = store.before(C, HistoryStore.Cursor.through(msg(3).sentAt().toEpochMilli()), 10);
+    assertEquals(List.of(1L, 2L, 3L), ids(page));
+  }
+
+  @Test
+  void appendSkipsStoredIds() throws Exception {
+    var store = store();
+    assertEquals(5, store.append(C, msgs(1, 5)).size());
+
+    var again = new ArrayList<>(msgs(4, 7));
+    again.add(msg(7));
+    assertEquals(List.of(6L, 7L), ids(store.append(C, again)));
+    assertEquals(7, store.size(C));
+    // still known after a restart
+    assertEquals(List.of(), store().append(C, msgs(1, 7)));
+  }
+
+  @Test
+  void tornTailIsCutOnFirstRead() throws Exception {
+    store().append(C, msgs(1, 3));
+    var file = dir.resolve(C + ".hist");
+    long complete = Files.size(file);
+    store().append(C, List.of(msg(4)));
+    try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      ch.truncate(Files.size(file) - 3);
+    }
+
+    var store = store();
+    assertEquals(3, store.size(C));
+    assertEquals(complete, Files.size(file));
+    assertEquals(List.of(1L, 2L, 3L), ids(store.before(C, null, 10)));
+    // the message can be stored again
+    assertEquals(List.of(4L), ids(store.append(C, List.of(msg(4)))));
+  }
+
+  @Test
+  void emptyOrMissingFileHasNoHistory() throws Exception {
+    Files.createDirectories(dir);
+    Files.write(dir.resolve(C + ".hist"), new byte[0]);
+    var store = store();
+
+    assertEquals(0, store.size(C));
+    assertNull(store.oldestId(C));
+    assertEquals(List.of(), store.before(C, null, 10));
+    assertEquals(0, store.size(UUID.randomUUID().toString()));
+  }
+
+  @Test
+  void syncMarkMovesOnlyWithServerHistory() throws Exception {
+    var store = store();
+    store.append(C, List.of(msg(9)));
+    assertEquals(0, store.syncedThrough(C));
+
+    store.appendSynced(C, msgs(1, 5));
+    assertEquals(msg(5).sentAt().toEpochMilli(), store.syncedThrough(C));
+    assertEquals(msg(5).sentAt().toEpochMilli(), store().syncedThrough(C));
+  }
+
+  @Test
+  void queuedFramesAreWrittenByClose() throws Exception {
+    var store = new HistoryStore(dir);
+    for (var m : msgs(1, 50)) store.appendLater(C, m);
+    store.appendLater(C, msg(1));
+    store.close();
+
+    assertEquals(50, store().size(C));
+  }
+
+  @Test
+  void findReadsTheRecordsBehindHits() throws Exception {
+    var store = store();
+    var idx = new MessageIndex(dir.resolve("index.bin"));
+    store.indexInto(idx);
+    store.append(C, msgs(1, 10));
+
+    var hits = idx.search("message", 3);
+    assertEquals(ids(List.of(msg(10), msg(9), msg(8))), ids(store.find(C, hits)));
+  }
+
+  @Test
+  void firstReadIndexesWhatTheIndexHasNotSeen() throws Exception {
+    store().append(C, msgs(1, 10));
+    var idx = new MessageIndex(dir.resolve("index.bin"));
+    var store = store();
+    store.indexInto(idx);
+
+    store.size(C);
+    assertEquals(10, idx.size());
+  }
+
+  @Test
+  void searchReadsMessagesOlderThanTheIndex() throws Exception {
+    var store = store();
+    store.append(C, msgs(1, 10));
+
+    var found = store.search("message", msg(6).sentAt().toEpochMilli(), 3);
+    assertEquals(List.of(5L, 4L, 3L), ids(found));
+    assertEquals(List.of(), store.search("nothing", Long.MAX_VALUE, 3));
+  }
+}
@@ -0,0 +1,106 @@
+package com.example.chatclient;
+
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class KeyedListTest {
+  private record Row(String key, String text) {}
+
+  private static KeyedList<Row, String> list() {
+    return new KeyedList<>(Row::key, Row::text);
+  }
+
+  private static List<Row> rows(String... keys) {
+    var out = new ArrayList<Row>();
+    for (var k : keys) out.add(new Row(k, k.toUpperCase()));
+    return out;
+  }
+
+  private static List<String> keys(List<Row> rows) {
+    return rows.stream().map(Row::key).toList();
+  }
+
+  @Test
+  void takesTheOrderOfTheSnapshot() {
+    var l = list();
+    l.reconcile(rows("a", "b", "c", "d"));
+    assertEquals(List.of("a", "b", "c", "d"), keys(l));
+
+    l.reconcile(rows("d", "b", "e", "a"));
+    assertEquals(List.of("d", "b", "e", "a"), keys(l));
+
+    l.reconcile(rows());
+    assertEquals(List.of(), keys(l));
+  }
+
+  @Test
+  void keepsUnchangedRowsAndReplacesChangedOnes() {
+    var l = list();
+    l.reconcile(rows("a", "b", "c"));
+    var a = l.get(0);
+    var b = l.get(1);
+
+    l.reconcile(List.of(new Row("c", "C"), new Row("a", "A"), new Row("b", "renamed")));
+    assertEquals(List.of("c", "a", "b"), keys(l));
+    assertSame(a, l.get(1));
+    assertNotSame(b, l.get(2));
+    assertEquals("renamed", l.get(2).text());
+  }
+
+  @Test
+  void firesOneChangePerReconcile() {
+    var l = list();
+    l.reconcile(rows("a", "b", "c"));
+    var changes = new int[1];
+    l.addListener((ListChangeListener<Row>) c -> changes[0]++);
+
+    l.reconcile(rows("c", "x", "a"));
+    assertEquals(1, changes[0]);
+
+    l.reconcile(rows("c", "x", "a"));
+    assertEquals(1, changes[0]); // nothing to do: no event
+  }
+
+  @Test
+  void changeEventReplaysToTheSameList() {
+    var l = list();
+    l.reconcile(rows("a", "b", "c", "d", "e"));
+    var mirror = new ArrayList<>(l);
+    l.addListener((ListChangeListener<Row>) c -> {
+      while (c.next()) {
+        if (c.wasPermutated()) throw new AssertionError("not expected from reconcile");
+        mirror.subList(c.getFrom(), c.getFrom() + c.getRemovedSize()).clear();
+        mirror.addAll(c.getFrom(), c.getAddedSubList());
+      }
+    });
+
+    l.reconcile(rows("e", "c", "f", "a"));
+    assertEquals(keys(l), keys(mirror));
+  }
+
+  @Test
+  void matchesRandomSnapshots() {
+    var random = new Random(42);
+    var pool = new ArrayList<String>();
+    for (int i = 0; i < 12; i++) pool.add("k" + i);
+    var l = list();
+    for (int round = 0; round < 500; round++) {
+      Collections.shuffle(pool, random);
+      var fresh = new ArrayList<Row>();
+      for (var k : pool.subList(0, random.nextInt(pool.size() + 1))) {
+        fresh.add(new Row(k, random.nextInt(4) == 0 ? "edited" : k));
+      }
+      l.reconcile(fresh);
+      assertEquals(fresh, new ArrayList<>(l), "round " + round);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.example.chatclient;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIndexTest {
+  private static final UUID A = UUID.fromString("11111111-1111-1111-1111-111111111111");
+  private static final UUID B = UUID.fromString("22222222-2222-2222-2222-222222222222");
+
+  @TempDir Path dir;
+
+  private static ChatMessage msg(long id, UUID conv, String sender, String content) {
+    return new ChatMessage(id, conv, sender, content, Instant.ofEpochSecond(1_000 + id));
+  }
+
+  private static MessageIndex indexed(Path file, List<ChatMessage> messages) {
+    var idx = new MessageIndex(file);
+    var offsets = new long[messages.size()];
+    for (int i = 0; i < offsets.length; i++) offsets[i] = 100L * i;
+    idx.addAll(messages, offsets);
+    return idx;
+  }
+
+  @Test
+  void saveAndLoadRoundTrip() throws Exception {
+    var file = dir.resolve("index.bin");
+    var messages = List.of(
+        msg(1, A, "alice", "lunch at noon?"),
+        msg(2, B, "bob", "Lunchtime meeting moved"),
+        msg(3, A, "carol", "see you at the station"),
+        msg(4, B, "alice", "noon works"));
+    var idx = indexed(file, messages);
+    idx.save();
+
+    var loaded = MessageIndex.open(file);
+    assertEquals(idx.size(), loaded.size());
+    assertEquals(idx.horizonMs(), loaded.horizonMs());
+    for (var q : List.of("lunch", "noon", "@alice", "station", "lunch noon", "nothing")) {
+      assertEquals(idx.search(q, 10), loaded.search(q, 10), q);
+    }
+    assertEquals(idx.indexedEnd(B), loaded.indexedEnd(B));
+  }
+
+  @Test
+  void hitsCarryConversationAndOffset() {
+    var idx = indexed(dir.resolve("index.bin"), List.of(msg(1, A, "alice", "alpha"), msg(2, B, "bob", "beta alpha")));
+
+    var hits = idx.search("beta", 10);
+    assertEquals(1, hits.size());
+    assertEquals(B.toString(), hits.get(0).conversationId());
+    assertEquals(2, hits.get(0).messageId());
+    assertEquals(100, hits.get(0).offset());
+    // the last term matches as a prefix; ties go to the newer message
+    assertEquals(List.of(2L, 1L), idx.search("alp", 10).stream().map(MessageIndex.Hit::messageId).toList());
+  }
+
+  @Test
+  void saveSkipsWhenNothingChanged() throws Exception {
+    var file = dir.resolve("index.bin");
+    var idx = indexed(file, List.of(msg(1, A, "alice", "hello")));
+    idx.save();
+    Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime.fromMillis(0));
+
+    idx.save();
+    assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+  }
+
+  @Test
+  void corruptFileOpensEmpty() throws Exception {
+    var file = dir.resolve("index.bin");
+    Files.write(file, new byte[] {1, 2, 3});
+
+    var idx = MessageIndex.open(file);
+    assertEquals(0, idx.size());
+    assertEquals(List.of(), idx.search("anything", 10));
+  }
+
+  @Test
+  void matchesNeedsEveryTermLastAsPrefix() {
+    var m = msg(1, A, "Alice", "Meeting moved to Friday");
+    assertTrue(MessageIndex.matches(MessageIndex.tokenize("meeting fri"), m));
+    assertFalse(MessageIndex.matches(MessageIndex.tokenize("meet friday"), m));
+    assertFalse(MessageIndex.matches(MessageIndex.tokenize("meeting monday"), m));
+  }
+
+  @Test
+  void indexedEndIsPastTheLastIndexedRecord() {
+    var messages = new ArrayList<ChatMessage>();
+    for (long i = 1; i <= 5; i++) messages.add(msg(i, A, "alice", "message " + i));
+    var idx = indexed(dir.resolve("index.bin"), messages);
+
+    assertEquals(401, idx.indexedEnd(A));
+    assertEquals(0, idx.indexedEnd(B));
+  }
+}
@@ -0,0 +1,130 @@
+package com.example.chatclient;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+  private static final String CONV = "11111111-1111-1111-1111-111111111111";
+
+  @TempDir Path dir;
+
+  @Test
+  void replaysUnackedMessagesInOrder() throws Exception {
+    var journal = dir.resolve("outbox.journal");
+    var q = new OutboundQueue(journal);
+    var a = q.add(CONV, "first");
+    var b = q.add(CONV, "second");
+    var c = q.add(CONV, "third");
+    q.ack(b.clientId());
+    q.drop(c.clientId());
+    q.close();
+
+    var replayed = new OutboundQueue(journal);
+    assertEquals(List.of(a), replayed.nextBatch(10, 10));
+    replayed.close();
+  }
+
+  @Test
+  void replayIgnoresTornTail() throws Exception {
+    var journal = dir.resolve("outbox.journal");
+    var q = new OutboundQueue(journal);
+    var kept = q.add(CONV, "kept");
+    var acked = q.add(CONV, "acked");
+    q.ack(acked.clientId());
+    q.close();
+    // a crash while queueing: the line is cut inside the base64 content, no newline
+    Files.writeString(journal, "S 00000000-0000-0000-0000-000000000009 " + CONV + " aGVsbG8gd29y",
+        StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    var replayed = new OutboundQueue(journal);
+    assertEquals(List.of(kept), replayed.nextBatch(10, 10));
+    replayed.close();
+    // compacted on open: the torn line is gone for good
+    assertFalse(Files.readString(journal).contains("aGVsbG8gd29y"));
+  }
+
+  @Test
+  void replayIgnoresTornAck() throws Exception {
+    var journal = dir.resolve("outbox.journal");
+    var q = new OutboundQueue(journal);
+    var m = q.add(CONV, "hello");
+    q.close();
+    Files.writeString(journal, "A " + m.clientId().substring(0, 8), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    var replayed = new OutboundQueue(journal);
+    assertTrue(replayed.isPending(m.clientId()));
+    replayed.close();
+  }
+
+  @Test
+  void inFlightUntilAckedOrRetried() throws Exception {
+    var q = new OutboundQueue(null);
+    var a = q.add(CONV, "a");
+    var b = q.add(CONV, "b");
+
+    assertEquals(List.of(a), q.nextBatch(1, 10));
+    assertEquals(List.of(b), q.nextBatch(10, 10));
+    assertEquals(List.of(), q.nextBatch(10, 10));
+    assertFalse(q.hasUnsent());
+    assertEquals(a, q.inFlight(CONV, "a"));
+
+    q.retry(a.clientId());
+    assertTrue(q.hasUnsent());
+    assertNull(q.inFlight(CONV, "a"));
+    assertEquals(List.of(a), q.nextBatch(10, 10));
+
+    assertEquals(b, q.ack(b.clientId()));
+    assertNull(q.ack(b.clientId()));
+    assertFalse(q.isPending(b.clientId()));
+    assertEquals(1, q.size());
+  }
+
+  @Test
+  void retryAllMakesEverythingSendableAgain() throws Exception {
+    var q = new OutboundQueue(null);
+    var a = q.add(CONV, "a");
+    var b = q.add(CONV, "b");
+    q.nextBatch(10, 10);
+
+    q.retryAll();
+    assertTrue(q.hasUnsent());
+    assertEquals(List.of(a, b), q.nextBatch(10, 10));
+  }
+
+  @Test
+  void inFlightLimitHoldsBackTheRest() throws Exception {
+    var q = new OutboundQueue(null);
+    var a = q.add(CONV, "a");
+    var b = q.add(CONV, "b");
+
+    assertEquals(List.of(a), q.nextBatch(10, 1));
+    assertEquals(List.of(), q.nextBatch(10, 1));
+    q.ack(a.clientId());
+    assertEquals(List.of(b), q.nextBatch(10, 1));
+  }
+
+  @Test
+  void missesCountUntilAckedOrDropped() throws Exception {
+    var q = new OutboundQueue(null);
+    var m = q.add(CONV, "a");
+
+    assertEquals(1, q.missed(m.clientId()));
+    assertEquals(2, q.missed(m.clientId()));
+    assertTrue(q.pendingFor(CONV));
+    assertEquals(m, q.drop(m.clientId()));
+    assertFalse(q.pendingFor(CONV));
+    // a new message under the same id would start counting afresh
+    assertEquals(1, q.missed(m.clientId()));
+  }
+}